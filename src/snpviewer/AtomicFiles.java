@@ -0,0 +1,50 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package snpviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Puts files written to a temporary file into place, so that a reader
+ * never sees a half written file - either the old file or the new one.
+ *
+ * @author david
+ */
+public class AtomicFiles {
+
+    /* move from to to, replacing to if it exists. The move is atomic where
+     * the file system supports it, otherwise a plain replacing move.
+     */
+    static void replace(File from, File to) throws IOException{
+        try{
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }catch (AtomicMoveNotSupportedException ex){
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package snpviewer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads tab-delimited birdseed files line by line straight from a byte
+ * buffer.  Only the columns passed to setColumns are located on each data
+ * line and these can be compared or parsed in place, so reading a line does
+ * not create any objects unless a field is asked for as a String.
+ *
+ * @author david
+ */
+public class BirdseedReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4,
+        1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+        1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final FileInputStream input;
+    private final long length;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferEnd = 0;//no. of valid bytes in buffer
+    private int position = 0;//start of next unread line in buffer
+    private long bytesConsumed = 0;
+    private boolean endOfInput = false;
+    private boolean skipLineFeed = false;//last line ended with a carriage return
+    private int lineStart;
+    private int lineEnd;
+    private int[] columns = new int[0];
+    private int[] fieldStarts = new int[0];
+    private int[] fieldEnds = new int[0];
+
+    BirdseedReader(File file) throws IOException{
+        input = new FileInputStream(file);
+        length = input.getChannel().size();
+    }
+
+    /* total size of the input in bytes */
+    public long getLength(){
+        return length;
+    }
+
+    /* bytes of input that have been returned as lines so far */
+    public long getBytesConsumed(){
+        return bytesConsumed;
+    }
+
+    /* set the (0-based) column indices that tokenize will look for - fields
+     * are then referred to by their index in cols rather than column number
+     */
+    public void setColumns(int... cols){
+        columns = Arrays.copyOf(cols, cols.length);
+        fieldStarts = new int[cols.length];
+        fieldEnds = new int[cols.length];
+    }
+
+    /* advance to the next line, returning false at the end of the input.
+     * Lines may be terminated by \n, \r\n or \r.
+     */
+    public boolean nextLine() throws IOException{
+        while (true){
+            if (skipLineFeed){
+                if (position >= bufferEnd && !fill()){
+                    return false;
+                }
+                if (buffer[position] == '\n'){
+                    position++;
+                    bytesConsumed++;
+                }
+                skipLineFeed = false;
+            }
+            for (int i = position; i < bufferEnd; i++){
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r'){
+                    lineStart = position;
+                    lineEnd = i;
+                    bytesConsumed += i + 1 - position;
+                    position = i + 1;
+                    skipLineFeed = b == '\r';
+                    return true;
+                }
+            }
+            if (!fill()){
+                if (position < bufferEnd){//last line without a terminator
+                    lineStart = position;
+                    lineEnd = bufferEnd;
+                    bytesConsumed += bufferEnd - position;
+                    position = bufferEnd;
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    /* move any partial line to the start of the buffer (growing it if the line
+     * fills the whole buffer) and read more input after it. Returns false if
+     * no more input could be read.
+     */
+    private boolean fill() throws IOException{
+        if (endOfInput){
+            return false;
+        }
+        int remaining = bufferEnd - position;
+        if (remaining == buffer.length){
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }else if (position > 0){
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        position = 0;
+        bufferEnd = remaining;
+        int read = input.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (read < 0){
+            endOfInput = true;
+            return false;
+        }
+        bufferEnd += read;
+        return true;
+    }
+
+    public boolean lineStartsWith(char c){
+        return lineEnd > lineStart && buffer[lineStart] == c;
+    }
+
+    public boolean lineIsEmpty(){
+        return lineEnd == lineStart;
+    }
+
+    public String getLine(){
+        return new String(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    /* find the start and end of each of the fields set by setColumns on the
+     * current line. Returns false if the line has too few fields.
+     */
+    public boolean tokenize(){
+        int found = 0;
+        int column = 0;
+        int fieldStart = lineStart;
+        for (int i = lineStart; i <= lineEnd; i++){
+            if (i == lineEnd || buffer[i] == '\t'){
+                for (int f = 0; f < columns.length; f++){
+                    if (columns[f] == column){
+                        fieldStarts[f] = fieldStart;
+                        fieldEnds[f] = i;
+                        found++;
+                    }
+                }
+                if (found == columns.length){
+                    return true;
+                }
+                column++;
+                fieldStart = i + 1;
+            }
+        }
+        return false;
+    }
+
+    public String getField(int f){
+        return new String(buffer, fieldStarts[f], fieldEnds[f] - fieldStarts[f]);
+    }
+
+    /* returns the String in candidates that matches field f exactly, or null
+     * if there is no match. Lets callers reuse Strings for repetitive values
+     * such as chromosome names and call codes.
+     */
+    public String matchField(int f, List<String> candidates){
+        for (String c: candidates){
+            if (fieldEquals(f, c)){
+                return c;
+            }
+        }
+        return null;
+    }
+
+    public boolean fieldEquals(int f, String s){
+        int start = fieldStarts[f];
+        int len = fieldEnds[f] - start;
+        if (len != s.length()){
+            return false;
+        }
+        for (int i = 0; i < len; i++){
+            if (buffer[start + i] != s.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* equivalent of matching the field against [\w]+ */
+    public boolean fieldIsWord(int f){
+        int start = fieldStarts[f];
+        int end = fieldEnds[f];
+        if (end == start){
+            return false;
+        }
+        for (int i = start; i < end; i++){
+            byte b = buffer[i];
+            if (!((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+                    || (b >= '0' && b <= '9') || b == '_')){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getIntField(int f){
+        int start = fieldStarts[f];
+        int end = fieldEnds[f];
+        boolean negative = false;
+        if (start < end && (buffer[start] == '-' || buffer[start] == '+')){
+            negative = buffer[start] == '-';
+            start++;
+        }
+        if (start == end){
+            throw new NumberFormatException("Empty integer field");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++){
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9){
+                throw new NumberFormatException("For input string: \""
+                        + getField(f) + "\"");
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L){
+                throw new NumberFormatException("Value out of range: \""
+                        + getField(f) + "\"");
+            }
+        }
+        if (negative){
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE){
+            throw new NumberFormatException("Value out of range: \""
+                    + getField(f) + "\"");
+        }
+        return (int) value;
+    }
+
+    /* parses plain decimals (e.g. 0.00421) directly from the buffer. The
+     * result is identical to Double.valueOf because both the digits and the
+     * power of ten are exactly representable as doubles, so the single
+     * division is correctly rounded. Anything else (exponents, very long
+     * mantissas etc.) falls back to Double.valueOf.
+     */
+    public double getDoubleField(int f){
+        int start = fieldStarts[f];
+        int end = fieldEnds[f];
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')){
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        for (; i < end; i++){
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9'){
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenPoint){
+                    fractionDigits++;
+                }
+                if (mantissa >= (1L << 53)){
+                    return Double.valueOf(getField(f));
+                }
+            }else if (b == '.' && !seenPoint){
+                seenPoint = true;
+            }else{
+                return Double.valueOf(getField(f));
+            }
+        }
+        if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length){
+            return Double.valueOf(getField(f));
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    @Override
+    public void close() throws IOException{
+        input.close();
+    }
+}
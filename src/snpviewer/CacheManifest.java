@@ -0,0 +1,190 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package snpviewer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The manifest of a folder of cached files (ImageCache, RegionCache) - a
+ * tab delimited text file recording, for each file, the key describing 
+ * what it was made from. Files are grouped by chromosome and quality 
+ * filter; writing a file removes the files of its group that the new key
+ * makes out of date, and then the oldest of the group if there are more
+ * than the cache keeps.
+ *
+ * The manifest is read when first used and rewritten (to a temporary file
+ * moved into place) after every change. Its methods are synchronized so
+ * one instance per folder can be shared by any number of threads.
+ *
+ * @author david
+ */
+public class CacheManifest<K extends CacheManifest.Key<K>> {
+    static final String FILE_NAME = "manifest";
+
+    /* what a cached file was made from */
+    interface Key<K>{
+        String getChromosome();
+        String getTier();//quality filter
+        /* true if the file for this key is out of date once one for k is
+         * written (only asked of keys of the same chromosome and tier)
+         */
+        boolean isReplacedBy(K k);
+        /* the values written to the manifest, which parse reads back */
+        String[] toFields();
+    }
+
+    private final File directory;
+    private final String header;
+    private final int maxPerGroup;
+    //null for a line that can't be read - its file will just be made again
+    private final Function<String[], K> parse;
+    //file name to key, oldest first
+    private LinkedHashMap<String, K> entries = null;
+
+    CacheManifest(File dir, String headerLine, int max, 
+            Function<String[], K> parser){
+        directory = dir;
+        header = headerLine;
+        maxPerGroup = max;
+        parse = parser;
+    }
+
+    /* the key of file name, or null if it is not in the manifest */
+    public synchronized K get(String name){
+        load();
+        return entries.get(name);
+    }
+
+    /* name of the oldest file whose key matches, or null if there is none */
+    public synchronized String find(Predicate<K> matches){
+        load();
+        for (Map.Entry<String, K> e: entries.entrySet()){
+            if (matches.test(e.getValue())){
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    /* record that file name (already written) was made for key, removing
+     * the files this replaces
+     */
+    public synchronized void put(String name, K key) throws IOException{
+        load();
+        ArrayList<String> sameGroup = new ArrayList<>();
+        Iterator<Map.Entry<String, K>> it = entries.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<String, K> e = it.next();
+            K k = e.getValue();
+            if (!k.getChromosome().equals(key.getChromosome()) 
+                    || !k.getTier().equals(key.getTier())){
+                continue;
+            }
+            if (e.getKey().equals(name)){
+                it.remove();//put back below as the newest
+            }else if (k.isReplacedBy(key)){
+                it.remove();
+                new File(directory, e.getKey()).delete();
+            }else{
+                sameGroup.add(e.getKey());
+            }
+        }
+        //oldest go first
+        for (int i = 0; i < sameGroup.size() - (maxPerGroup - 1); i++){
+            entries.remove(sameGroup.get(i));
+            new File(directory, sameGroup.get(i)).delete();
+        }
+        entries.put(name, key);
+        save();
+    }
+
+    private void load(){
+        if (entries != null){
+            return;
+        }
+        entries = new LinkedHashMap<>();
+        File manifest = new File(directory, FILE_NAME);
+        if (!manifest.exists()){
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifest.toPath(), 
+                StandardCharsets.UTF_8)){
+            String line = reader.readLine();
+            if (!header.equals(line)){
+                return;
+            }
+            while ((line = reader.readLine()) != null){
+                String[] split = line.split("\t");
+                String[] fields = new String[split.length - 1];
+                System.arraycopy(split, 1, fields, 0, fields.length);
+                try{
+                    K key = parse.apply(fields);
+                    if (key != null){
+                        entries.put(split[0], key);
+                    }
+                }catch (NumberFormatException ex){
+                    //skip the entry - its file will just be made again
+                }
+            }
+        }catch (IOException ex){
+            Logger.getLogger(CacheManifest.class.getName()).log(Level.WARNING, 
+                    "Could not read cache manifest " + manifest, ex);
+            entries = new LinkedHashMap<>();
+        }
+    }
+
+    private void save() throws IOException{
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Unable to make directory " + directory.getPath());
+        }
+        File manifest = new File(directory, FILE_NAME);
+        File temp = File.createTempFile(FILE_NAME, ".tmp", directory);
+        try{
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(
+                    temp.toPath(), StandardCharsets.UTF_8))){
+                writer.println(header);
+                for (Map.Entry<String, K> e: entries.entrySet()){
+                    writer.println(e.getKey() + "\t" 
+                            + String.join("\t", e.getValue().toFields()));
+                }
+                if (writer.checkError()){
+                    throw new IOException("Error writing " + temp.getPath());
+                }
+            }
+            AtomicFiles.replace(temp, manifest);
+        }finally{
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package snpviewer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads regions of a columnar chromosome file (ChromosomeStore)
+ * without loading the whole chromosome. The fixed width position column is
+ * binary searched in place and only the SNPs in the region are copied into
+ * a new ChromosomeStore, so a region query costs roughly what the region
+ * itself costs.
+ *
+ * The file is read with positional reads a block at a time rather than
+ * memory mapped - a mapping can't be released until it is garbage
+ * collected, and on Windows keeps the file from being replaced or deleted
+ * meanwhile. Readers hold the file open so should be closed after use.
+ *
+ * Regions are found the same way as SnpFile.getSnpsInRegion does on a
+ * whole chromosome - including the SNPs either side of the region if
+ * there is no SNP exactly at start or end - but only counting SNPs that
+ * pass the quality filter.
+ *
+ * For files aligned to a MarkerCatalog the positions and IDs are read from
+ * the catalog's markers, which are held in memory once for all samples,
+ * and markers the sample doesn't have are skipped like filtered SNPs.
+ *
+ * @author david
+ */
+public class ChromRegionReader implements Closeable{
+    private final Blocks buf;
+    private final ChromosomeStore.Header header;
+    private final MarkerCatalog.Markers markers;//null unless aligned to a catalog
+    private final int presenceOffset;//-1 unless some markers are missing
+    private final int positionOffset;
+    private final int genotypeOffset;
+    private final int confidenceOffset;
+    private final int tierOffset;//-1 if there are no quality tier bitmaps
+    private final int idOffset;
+    private final int otherIdOffsets;
+    private final int otherIdBlock;
+
+    private final int end;
+
+    private ChromRegionReader(Blocks blocks, int offset, ChromosomeStore.Header h,
+            MarkerCatalog.Markers m){
+        buf = blocks;
+        header = h;
+        markers = m;
+        int n = h.size;
+        if (m != null){
+            //no position or id columns in the file
+            presenceOffset = h.partial ? offset : -1;
+            positionOffset = -1;
+            genotypeOffset = offset + (h.partial ? 
+                    8 * ChromosomeStore.presenceWords(n) : 0);
+        }else{
+            presenceOffset = -1;
+            positionOffset = offset;
+            genotypeOffset = positionOffset + 4 * n;
+        }
+        confidenceOffset = genotypeOffset + (h.packedGenotypes ? 
+                8 * PackedGenotypes.wordsFor(n) : n);
+        int afterConfidence = confidenceOffset + (h.hasConfidence ? 4 * n : 0);
+        if (h.hasConfidence){
+            tierOffset = afterConfidence;
+            afterConfidence += 8 * ChromosomeStore.QUALITY_TIERS.length 
+                    * ChromosomeStore.presenceWords(n);
+        }else{
+            tierOffset = -1;
+        }
+        if (m != null){
+            idOffset = -1;
+            otherIdOffsets = -1;
+            otherIdBlock = -1;
+            end = afterConfidence;
+        }else{
+            idOffset = afterConfidence;
+            otherIdOffsets = idOffset + 4 * n;
+            otherIdBlock = otherIdOffsets + 4 * (h.otherIdCount + 1);
+            end = otherIdBlock;
+        }
+    }
+
+    /* returns null if file is not a columnar file that can be read by 
+     * region, otherwise a reader that must be closed
+     */
+    public static ChromRegionReader open(File file) throws IOException{
+        FileChannel channel = FileChannel.open(file.toPath(), 
+                StandardOpenOption.READ);
+        try{
+            Blocks blocks = new Blocks(channel);
+            if (blocks.length < 6 || blocks.getInt(0) != ChromosomeStore.MAGIC
+                    || blocks.getShort(4) != ChromosomeStore.VERSION){
+                channel.close();
+                return null;
+            }
+            //the header is small but variable length, so read more until it fits
+            ChromosomeStore.Header h = null;
+            ByteBuffer head = null;
+            for (int want = Blocks.BLOCK_SIZE; h == null; want *= 2){
+                head = blocks.readFully(0, (int) Math.min(want, blocks.length));
+                try{
+                    h = ChromosomeStore.readHeader(head, file.getName());
+                }catch (IOException ex){
+                    if (!(ex.getCause() instanceof BufferUnderflowException)
+                            || head.limit() >= blocks.length){
+                        throw ex;
+                    }
+                }
+            }
+            MarkerCatalog.Markers m = null;
+            if (h.catalogGeneration >= 0){
+                m = MarkerCatalog.forChromFile(file).getMarkers(h.chromosome, 
+                        h.catalogGeneration);
+                if (m.size() != h.size){
+                    throw new IOException(file.getName() + " does not match "
+                            + "marker catalog generation " + h.catalogGeneration);
+                }
+            }
+            ChromRegionReader reader = new ChromRegionReader(blocks, 
+                    head.position(), h, m);
+            if (reader.end > blocks.length){
+                throw new IOException(file.getName() + " is truncated");
+            }
+            return reader;
+        }catch (IOException | RuntimeException ex){
+            channel.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() throws IOException{
+        buf.channel.close();
+    }
+
+    public int size(){
+        return header.size;
+    }
+
+    public String getChromosome(){
+        return header.chromosome;
+    }
+
+    public int getPosition(int i){
+        if (markers != null){
+            return markers.positions[i];
+        }
+        return buf.getInt(positionOffset + 4 * i);
+    }
+
+    private int getIdCode(int i){
+        if (markers != null){
+            return markers.ids[i];
+        }
+        return buf.getInt(idOffset + 4 * i);
+    }
+
+    private String getOtherId(int k){
+        if (markers != null){
+            return markers.otherIds[k];
+        }
+        int start = buf.getInt(otherIdOffsets + 4 * k);
+        int stop = buf.getInt(otherIdOffsets + 4 * (k + 1));
+        byte[] bytes = new byte[stop - start];
+        for (int b = 0; b < bytes.length; b++){
+            bytes[b] = buf.get(otherIdBlock + start + b);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte getGenotypeCode(int i){
+        if (header.packedGenotypes){
+            long word = buf.getLong(genotypeOffset + 8 * (i >>> 5));
+            return (byte) ((word >>> ((i & 31) << 1)) & 3);
+        }
+        return buf.get(genotypeOffset + i);
+    }
+
+    private boolean passes(int i, Double filter){
+        if (presenceOffset >= 0 && 
+                (buf.getLong(presenceOffset + 8 * (i >>> 6)) & (1L << i)) == 0){
+            return false;
+        }
+        if (filter == null || filter < 0 || !header.hasConfidence){
+            return true;
+        }
+        int tier = tierOffset < 0 ? -1 : ChromosomeStore.tierIndex(filter);
+        if (tier >= 0){
+            int mask = tierOffset + 8 * tier * ChromosomeStore.presenceWords(header.size);
+            return (buf.getLong(mask + 8 * (i >>> 6)) & (1L << i)) != 0;
+        }
+        return !(buf.getFloat(confidenceOffset + 4 * i) > filter.floatValue());
+    }
+
+    /* index of the first SNP at or after c */
+    private int lowerBound(int c){
+        int l = 0;
+        int u = header.size;
+        while (l < u){
+            int m = (l + u) >>> 1;
+            if (getPosition(m) < c){
+                l = m + 1;
+            }else{
+                u = m;
+            }
+        }
+        return l;
+    }
+
+    private int previousPassing(int from, Double filter){
+        for (int i = from; i >= 0; i--){
+            if (passes(i, filter)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int nextPassing(int from, Double filter){
+        for (int i = from; i < header.size; i++){
+            if (passes(i, filter)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /* as ChromosomeStore.nearestIndex on the SNPs passing filter, but
+     * returning an index into the whole file (or -1 if no SNPs pass)
+     */
+    int nearestIndex(int c, boolean lookBack, Double filter){
+        int i = lowerBound(c);
+        if (i < header.size && getPosition(i) == c && passes(i, filter)){
+            return i;
+        }
+        if (lookBack){
+            int found = previousPassing(i - 1, filter);
+            return found >= 0 ? found : nextPassing(0, filter);
+        }else{
+            if (i < header.size && getPosition(i) == c){
+                i++;
+            }
+            int found = nextPassing(i, filter);
+            return found >= 0 ? found : previousPassing(header.size - 1, filter);
+        }
+    }
+
+    /* SNPs passing filter from the nearest SNP to start (looking back) to
+     * the nearest SNP to end (looking forward), plus up to flanks SNPs
+     * either side
+     */
+    public ChromosomeStore getRegion(int start, int end, int flanks, Double filter){
+        int s = nearestIndex(start, true, filter);
+        int e = nearestIndex(end, false, filter);
+        if (s < 0 || e < s){
+            return slice(0, -1, filter);
+        }
+        for (int f = 0; f < flanks; f++){
+            int prev = previousPassing(s - 1, filter);
+            if (prev < 0){
+                break;
+            }
+            s = prev;
+        }
+        for (int f = 0; f < flanks; f++){
+            int next = nextPassing(e + 1, filter);
+            if (next < 0){
+                break;
+            }
+            e = next;
+        }
+        return slice(s, e, filter);
+    }
+
+    /* copy SNPs start to end (inclusive) that pass filter */
+    ChromosomeStore slice(int start, int end, Double filter){
+        int n = 0;
+        for (int i = start; i <= end; i++){
+            if (passes(i, filter)){
+                n++;
+            }
+        }
+        int[] pos = new int[n];
+        byte[] calls = new byte[n];
+        float[] conf = header.hasConfidence ? new float[n] : null;
+        int[] snpIds = new int[n];
+        //only the other IDs used in the slice are read, renumbered from 0
+        HashMap<Integer, Integer> otherIndices = new HashMap<>();
+        ArrayList<String> others = new ArrayList<>();
+        int j = 0;
+        for (int i = start; i <= end; i++){
+            if (!passes(i, filter)){
+                continue;
+            }
+            pos[j] = getPosition(i);
+            calls[j] = getGenotypeCode(i);
+            if (conf != null){
+                conf[j] = buf.getFloat(confidenceOffset + 4 * i);
+            }
+            int id = getIdCode(i);
+            if (id < 0){
+                Integer other = otherIndices.get(id);
+                if (other == null){
+                    other = others.size();
+                    others.add(getOtherId(-id - 1));
+                    otherIndices.put(id, other);
+                }
+                id = -(other + 1);
+            }
+            snpIds[j] = id;
+            j++;
+        }
+        return new ChromosomeStore(header.chromosome, pos, calls, conf, snpIds,
+                header.callCodes, others.toArray(new String[others.size()]));
+    }
+
+    /* read-through cache of the last few fixed size blocks of a file, 
+     * giving the random access get methods of a ByteBuffer over positional
+     * reads (big-endian, as the files are written by DataOutputStream).
+     * Read errors are thrown as UncheckedIOExceptions.
+     */
+    private static class Blocks{
+        static final int BLOCK_SIZE = 64 * 1024;
+        private static final int MAX_BLOCKS = 16;
+        
+        final FileChannel channel;
+        final long length;
+        private final LinkedHashMap<Long, ByteBuffer> blocks = 
+                new LinkedHashMap<Long, ByteBuffer>(32, 0.75f, true){
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<Long, ByteBuffer> eldest){
+                        return size() > MAX_BLOCKS;
+                    }
+                };
+        
+        Blocks(FileChannel c) throws IOException{
+            channel = c;
+            length = c.size();
+        }
+        
+        /* n bytes from offset, which must be in the file */
+        ByteBuffer readFully(long offset, int n) throws IOException{
+            ByteBuffer b = ByteBuffer.allocate(n);
+            while (b.hasRemaining()){
+                if (channel.read(b, offset + b.position()) < 0){
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            b.flip();
+            return b;
+        }
+        
+        private ByteBuffer block(long index){
+            ByteBuffer b = blocks.get(index);
+            if (b == null){
+                long offset = index * BLOCK_SIZE;
+                try{
+                    b = readFully(offset, (int) Math.min(BLOCK_SIZE, 
+                            length - offset));
+                }catch (IOException ex){
+                    throw new UncheckedIOException(ex);
+                }
+                blocks.put(index, b);
+            }
+            return b;
+        }
+        
+        byte get(long offset){
+            return block(offset / BLOCK_SIZE).get((int) (offset % BLOCK_SIZE));
+        }
+        
+        //the next n bytes as a big-endian number
+        private long getBytes(long offset, int n){
+            int within = (int) (offset % BLOCK_SIZE);
+            if (within + n <= BLOCK_SIZE){
+                ByteBuffer b = block(offset / BLOCK_SIZE);
+                switch (n){
+                    case 2: return b.getShort(within);
+                    case 4: return b.getInt(within);
+                    default: return b.getLong(within);
+                }
+            }
+            //straddles two blocks
+            long v = 0;
+            for (int i = 0; i < n; i++){
+                v = (v << 8) | (get(offset + i) & 0xff);
+            }
+            return v;
+        }
+        
+        short getShort(long offset){
+            return (short) getBytes(offset, 2);
+        }
+        
+        int getInt(long offset){
+            return (int) getBytes(offset, 4);
+        }
+        
+        long getLong(long offset){
+            return getBytes(offset, 8);
+        }
+        
+        float getFloat(long offset){
+            return Float.intBitsToFloat(getInt(offset));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package snpviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Least recently used cache of decoded chromosome files shared by every
+ * SnpFile, so that drawing, zooming, region finding and exporting don't
+ * each read the same chromosome from disk. Entries are keyed on the
+ * chromosome file (i.e. sample and chromosome) and quality filter, and
+ * also on the file's size and modification time so that a file that has
+ * been rewritten is read again. Entries are evicted once their total
+ * estimated size goes over the memory budget.
+ *
+ * ChromosomeStores are never modified once created so can be handed to
+ * any number of threads. Two threads asking for the same chromosome at
+ * the same time may both read it, but only one copy is kept.
+ *
+ * @author david
+ */
+public class ChromosomeCache {
+    //memory budget in MB (-Dsnpviewer.chromCacheMb=N)
+    private static final long DEFAULT_BUDGET_MB = 256;
+    private static final ChromosomeCache INSTANCE = new ChromosomeCache(
+            Long.getLong("snpviewer.chromCacheMb", DEFAULT_BUDGET_MB) * 1024 * 1024);
+
+    private final LinkedHashMap<Key, ChromosomeStore> entries =
+            new LinkedHashMap<>(64, 0.75f, true);
+    private long budget;
+    private long usedBytes = 0;
+
+    ChromosomeCache(long budgetBytes){
+        budget = budgetBytes;
+    }
+
+    public static ChromosomeCache getInstance(){
+        return INSTANCE;
+    }
+
+    public interface Loader{
+        /* decode chromFile without applying any quality filter */
+        ChromosomeStore load(File chromFile) throws IOException;
+    }
+
+    /* returns the SNPs in chromFile passing filter, using loader to read
+     * the file if it is not cached
+     */
+    public ChromosomeStore get(File chromFile, Double filter, Loader loader)
+            throws IOException{
+        Key key = new Key(chromFile, filter);
+        synchronized(this){
+            ChromosomeStore cached = entries.get(key);
+            if (cached != null){
+                return cached;
+            }
+        }
+        /*the unfiltered store is cached too, so changing the quality filter
+         * doesn't mean reading the file again
+         */
+        ChromosomeStore store = null;
+        Key unfilteredKey = new Key(chromFile, null);
+        if (filter != null){
+            synchronized(this){
+                store = entries.get(unfilteredKey);
+            }
+        }
+        if (store == null){
+            store = loader.load(chromFile);
+            put(unfilteredKey, store);
+        }
+        if (filter != null){
+            store = store.filter(filter);
+            put(key, store);
+        }
+        return store;
+    }
+
+    /* the cached SNPs in chromFile passing filter, or null if not cached */
+    public synchronized ChromosomeStore peek(File chromFile, Double filter){
+        return entries.get(new Key(chromFile, filter));
+    }
+
+    private synchronized void put(Key key, ChromosomeStore store){
+        ChromosomeStore old = entries.put(key, store);
+        if (old != null){
+            usedBytes -= old.estimateBytes();
+        }
+        usedBytes += store.estimateBytes();
+        evict();
+    }
+
+    //remove least recently used entries until within budget, keeping the newest
+    private void evict(){
+        Iterator<Map.Entry<Key, ChromosomeStore>> it = entries.entrySet().iterator();
+        while (usedBytes > budget && entries.size() > 1 && it.hasNext()){
+            usedBytes -= it.next().getValue().estimateBytes();
+            it.remove();
+        }
+    }
+
+    public synchronized void setBudget(long budgetBytes){
+        budget = budgetBytes;
+        evict();
+    }
+
+    public synchronized long getBudget(){
+        return budget;
+    }
+
+    public synchronized long getUsedBytes(){
+        return usedBytes;
+    }
+
+    /* remove all entries for chromFile, e.g. when it is deleted */
+    public synchronized void invalidate(File chromFile){
+        String path = chromFile.getAbsolutePath();
+        Iterator<Map.Entry<Key, ChromosomeStore>> it = entries.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<Key, ChromosomeStore> e = it.next();
+            if (e.getKey().path.equals(path)){
+                usedBytes -= e.getValue().estimateBytes();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear(){
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    private static class Key{
+        final String path;
+        final long length;
+        final long lastModified;
+        final Double filter;
+
+        Key(File file, Double f){
+            path = file.getAbsolutePath();
+            length = file.length();
+            lastModified = file.lastModified();
+            filter = f;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (!(o instanceof Key)){
+                return false;
+            }
+            Key k = (Key) o;
+            return path.equals(k.path) && length == k.length
+                    && lastModified == k.lastModified
+                    && Objects.equals(filter, k.filter);
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(path, length, lastModified, filter);
+        }
+    }
+}
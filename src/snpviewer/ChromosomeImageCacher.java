@@ -0,0 +1,170 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+
+/**
+ * Draws and caches the chromosome images of every sample (the "Cache
+ * Chromosomes" option) without using the scene graph. Each sample and
+ * chromosome is drawn by DrawSnpsToPane.render and written straight to
+ * the sample's ImageCache, on a pool of one thread per processor (or
+ * -Dsnpviewer.cacheThreads=N), so the window can still be used meanwhile.
+ * Images already in the cache for the same size, colours and data are
+ * skipped. The value is the no. of images written.
+ *
+ * @author david
+ */
+public class ChromosomeImageCacher extends Service<Integer> {
+    static final int DEFAULT_THREADS = Integer.getInteger("snpviewer.cacheThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    private final List<SnpFile> samples = new ArrayList<>();
+    private final List<String> chromosomes = new ArrayList<>();
+    private final int width;
+    private final int height;
+    private final int aaColor;
+    private final int bbColor;
+    private final int abColor;
+    private ColumnColorRule columnColorRule = ColumnColorRule.getDefault();
+    private int threads = DEFAULT_THREADS;
+    private final List<String> failures = new ArrayList<>();
+
+    /* images are w x h and colours are ARGB */
+    ChromosomeImageCacher(List<SnpFile> snpFiles, List<String> chroms, int w, 
+            int h, int aa, int bb, int ab){
+        samples.addAll(snpFiles);
+        chromosomes.addAll(chroms);
+        width = w;
+        height = h;
+        aaColor = aa;
+        bbColor = bb;
+        abColor = ab;
+    }
+
+    public void setColumnColorRule(ColumnColorRule rule){
+        columnColorRule = rule;
+    }
+
+    public void setThreads(int n){
+        threads = Math.max(1, n);
+    }
+
+    /* descriptions of images that could not be written by the last run */
+    public synchronized List<String> getFailures(){
+        return new ArrayList<>(failures);
+    }
+
+    private synchronized void addFailure(String failure){
+        failures.add(failure);
+    }
+
+    @Override
+    protected Task<Integer> createTask(){
+        final ColumnColorRule rule = columnColorRule;
+        synchronized(this){
+            failures.clear();
+        }
+        return new Task<Integer>(){
+            @Override
+            protected Integer call() throws Exception{
+                int total = samples.size() * chromosomes.size();
+                int written = 0;
+                final Task<Integer> task = this;
+                if (total == 0){
+                    return written;
+                }
+                ExecutorService executor = Executors.newFixedThreadPool(
+                        Math.min(threads, total), r -> {
+                            Thread t = new Thread(r, "snpview-image-cacher");
+                            t.setDaemon(true);
+                            return t;
+                        });
+                try{
+                    ExecutorCompletionService<Boolean> completion = 
+                            new ExecutorCompletionService<>(executor);
+                    //chromosome by chromosome so each is finished together
+                    for (final String chrom: chromosomes){
+                        for (final SnpFile s: samples){
+                            completion.submit(() -> {
+                                try{
+                                    ImageCache cache = ImageCache.forSample(s);
+                                    //the same filter for the key and drawing
+                                    Double filter = s.getQualityFilter();
+                                    ImageCache.Key key = ImageCache.key(s, chrom,
+                                            filter, width, height, aaColor, 
+                                            bbColor, abColor, rule);
+                                    if (cache.find(key) != null){
+                                        return false;
+                                    }
+                                    ChromosomeRaster raster = DrawSnpsToPane.render(
+                                            s, chrom, width, height, aaColor, 
+                                            bbColor, abColor, null, null, filter, 
+                                            rule, task::isCancelled);
+                                    if (raster == null){
+                                        return false;
+                                    }
+                                    cache.put(key, raster);
+                                    return true;
+                                }catch (Exception ex){
+                                    throw new Exception("chr" + chrom + " of " 
+                                            + s.getInputFileName() + ": " 
+                                            + ex.getLocalizedMessage(), ex);
+                                }
+                            });
+                        }
+                    }
+                    updateMessage("Caching " + total + " chromosome images...");
+                    for (int i = 0; i < total; i++){
+                        if (isCancelled()){
+                            updateMessage("Cancelled");
+                            return written;
+                        }
+                        try{
+                            if (completion.take().get()){
+                                written++;
+                            }
+                        }catch (ExecutionException ex){
+                            Logger.getLogger(ChromosomeImageCacher.class.getName())
+                                    .log(Level.SEVERE, null, ex.getCause());
+                            addFailure(ex.getCause().getLocalizedMessage());
+                        }
+                        updateProgress(i + 1, total);
+                    }
+                }finally{
+                    executor.shutdownNow();
+                }
+                updateMessage("Cached " + written + " chromosome images");
+                return written;
+            }
+        };
+    }
+}
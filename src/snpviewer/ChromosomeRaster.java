@@ -0,0 +1,102 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Image of a sample's genotypes as an array of ARGB pixels. It is drawn
+ * by DrawSnpsToPane on a background thread rather than as one Line node
+ * per SNP, and only turned into a JavaFX image (toImage) once finished.
+ * Each pixel column is one colour from top to bottom, as the lines were.
+ *
+ * @author david
+ */
+public class ChromosomeRaster {
+    //snapshots of panes had a white background
+    static final int BACKGROUND = 0xFFFFFFFF;
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    ChromosomeRaster(int w, int h){
+        width = w;
+        height = h;
+        pixels = new int[w * h];
+        Arrays.fill(pixels, BACKGROUND);
+    }
+
+    /* a raster of the given height with column x coloured columns[x] */
+    static ChromosomeRaster fromColumns(int[] columns, int h){
+        ChromosomeRaster raster = new ChromosomeRaster(columns.length, h);
+        //every row is the same
+        for (int y = 0; y < h; y++){
+            System.arraycopy(columns, 0, raster.pixels, y * columns.length, 
+                    columns.length);
+        }
+        return raster;
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public int getArgb(int x, int y){
+        return pixels[y * width + x];
+    }
+
+    /* call on the FX thread - the pixels are copied so the raster can be
+     * reused or discarded afterwards
+     */
+    public WritableImage toImage(){
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, 
+                PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return image;
+    }
+
+    /* for encoding with ImageIO - unlike toImage this can be called from any
+     * thread
+     */
+    public BufferedImage toBufferedImage(){
+        BufferedImage image = new BufferedImage(width, height, 
+                BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    static int toArgb(Color c){
+        return ((int) Math.round(c.getOpacity() * 255) << 24)
+                | ((int) Math.round(c.getRed() * 255) << 16)
+                | ((int) Math.round(c.getGreen() * 255) << 8)
+                | (int) Math.round(c.getBlue() * 255);
+    }
+}
@@ -0,0 +1,873 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package snpviewer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Column based store for the SNP calls of one chromosome of one sample, as
+ * written to the chrN.snpview files. Instead of serializing a list of
+ * SnpLine objects each field is held as a primitive column:
+ *
+ *  positions   - ascending, one int per SNP
+ *  genotypes   - two bits per SNP (PackedGenotypes) for the standard calls,
+ *                or one byte per SNP indexing a table of call codes if the
+ *                input used any others
+ *  confidences - one float per SNP (if the input had a confidence column)
+ *  tiers       - for each of the QUALITY_TIERS filters the UI offers, a
+ *                bitmap of the SNPs that pass it (if there are confidences)
+ *  ids         - one int per SNP: the number of an "rs" ID, 0 for "---" or
+ *                -(n + 1) for the nth entry of a table of other IDs
+ *
+ * The tiers are worked out once when the file is written so that filtering
+ * on one of them is a scan over a bitmap rather than a comparison of every
+ * confidence. Every column is fixed width so ChromRegionReader can binary search the
+ * positions in the file and read just the SNPs in a region. Files
+ * start with a magic number and a version so that the serialized files
+ * of earlier releases can be recognised (and converted by 
+ * ProjectMigrator), and so that the format can change in future.
+ *
+ * Within a project the positions and ids normally come from the project's
+ * MarkerCatalog instead, and the sample's file holds only genotypes and
+ * confidences aligned to the catalog's markers (plus a bitmap of the
+ * markers the sample has, if it doesn't have them all). Stores read from
+ * such files share the catalog's position and id arrays.
+ *
+ * @author david
+ */
+public class ChromosomeStore {
+    //"SNPV" - serialized files start with 0xACED so can't be confused with this
+    static final int MAGIC = 0x534E5056;
+    /* the only columnar version so far - files in any other format are 
+     * serialized SnpLine lists, converted by ProjectMigrator
+     */
+    static final short VERSION = 1;
+    private static final int FLAG_CONFIDENCE = 1;
+    private static final int FLAG_PACKED = 2;
+    private static final int FLAG_CATALOG = 4;
+    private static final int FLAG_PARTIAL = 8;
+    //standard birdseed calls always get the same genotype codes
+    static final String[] STANDARD_CALLS = {"NoCall", "AA", "BB", "AB"};
+    //the no. of call codes is stored in one (unsigned) byte
+    static final int MAX_CALL_CODES = 255;
+    static final String NO_ID = "---";
+    //quality filters offered by SnpViewer, precomputed as bitmaps
+    static final double[] QUALITY_TIERS = {0.001, 0.005, 0.01, 0.05, 0.10};
+
+    final String chromosome;
+    final int[] positions;
+    final PackedGenotypes packedGenotypes;//null if non-standard calls are used
+    final byte[] genotypes;//null unless non-standard calls are used
+    final float[] confidences;//null if there were no confidence values
+    //a bitmap per QUALITY_TIERS entry, null if there are no confidences
+    final long[][] tierMasks;
+    final int[] ids;
+    final String[] callCodes;
+    final String[] otherIds;
+    //true if positions, ids and otherIds belong to a MarkerCatalog
+    private final boolean sharedMarkers;
+
+    /* calls are indices into codes - packed if codes are the standard calls */
+    ChromosomeStore(String chrom, int[] pos, byte[] calls, float[] conf,
+            int[] snpIds, String[] codes, String[] others){
+        this(chrom, pos, codes.length <= STANDARD_CALLS.length ? pack(calls) : null,
+                codes.length <= STANDARD_CALLS.length ? null : calls, conf,
+                null, snpIds, codes, others, false);
+    }
+
+    /* tiers are computed from conf if null */
+    private ChromosomeStore(String chrom, int[] pos, PackedGenotypes packed,
+            byte[] calls, float[] conf, long[][] tiers, int[] snpIds, 
+            String[] codes, String[] others, boolean shared){
+        chromosome = chrom;
+        positions = pos;
+        packedGenotypes = packed;
+        genotypes = calls;
+        confidences = conf;
+        tierMasks = tiers != null || conf == null ? tiers : computeTierMasks(conf);
+        ids = snpIds;
+        callCodes = codes;
+        otherIds = others;
+        sharedMarkers = shared;
+    }
+
+    /* bit i of mask t is set if SNP i passes QUALITY_TIERS[t] - SNPs without
+     * a confidence pass every tier
+     */
+    static long[][] computeTierMasks(float[] conf){
+        long[][] masks = new long[QUALITY_TIERS.length][presenceWords(conf.length)];
+        for (int t = 0; t < QUALITY_TIERS.length; t++){
+            float threshold = (float) QUALITY_TIERS[t];
+            long[] mask = masks[t];
+            for (int i = 0; i < conf.length; i++){
+                if (!(conf[i] > threshold)){
+                    mask[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        return masks;
+    }
+
+    /* index into QUALITY_TIERS of filter, or -1 if it isn't one of them */
+    static int tierIndex(Double filter){
+        if (filter == null){
+            return -1;
+        }
+        for (int t = 0; t < QUALITY_TIERS.length; t++){
+            if ((float) QUALITY_TIERS[t] == filter.floatValue()){
+                return t;
+            }
+        }
+        return -1;
+    }
+
+    private static PackedGenotypes pack(byte[] calls){
+        PackedGenotypes packed = new PackedGenotypes(calls.length);
+        for (int i = 0; i < calls.length; i++){
+            packed.set(i, calls[i]);
+        }
+        return packed;
+    }
+
+    /* snps must be sorted by position with no duplicate coordinates */
+    public static ChromosomeStore fromSnpLines(String chrom,
+            List<SnpFile.SnpLine> snps) throws IOException{
+        Builder builder = new Builder(chrom, snps.size());
+        for (SnpFile.SnpLine snp: snps){
+            builder.add(snp.getPosition(), snp.getId(), snp.getCall(), 
+                    snp.getConfidence());
+        }
+        return builder.build();
+    }
+
+    /* SNPs from parallel columns sorted by position (confidences NaN where
+     * not available), e.g. a chromosome from ExternalSnpSorter, without 
+     * making SnpLines. Of SNPs with the same coordinate only the most 
+     * confident call (lowest confidence value) is kept - each is compared
+     * with the one kept so far and replaces it if both have confidences 
+     * and its confidence is no worse. If either has no confidence the one
+     * kept so far stays.
+     */
+    public static ChromosomeStore fromSortedColumns(String chrom, int[] positions,
+            String[] ids, String[] calls, double[] confidences) throws IOException{
+        Builder builder = new Builder(chrom, positions.length);
+        int i = 0;
+        while (i < positions.length){
+            int keep = i;
+            int next = i + 1;
+            for (; next < positions.length && positions[next] == positions[i]; 
+                    next++){
+                if (!Double.isNaN(confidences[next]) 
+                        && !Double.isNaN(confidences[keep])
+                        && confidences[next] <= confidences[keep]){
+                    keep = next;
+                }
+            }
+            builder.add(positions[keep], ids[keep], calls[keep], 
+                    Double.isNaN(confidences[keep]) ? null : confidences[keep]);
+            i = next;
+        }
+        return builder.build();
+    }
+
+    /* converts SNPs one at a time into the columns of a ChromosomeStore */
+    private static class Builder{
+        private final String chrom;
+        private int n = 0;
+        private final int[] pos;
+        private final byte[] calls;
+        private float[] conf = null;
+        private final int[] snpIds;
+        private final ArrayList<String> codes = 
+                new ArrayList<>(Arrays.asList(STANDARD_CALLS));
+        private final HashMap<String, Integer> codeIndices = new HashMap<>();
+        private final ArrayList<String> others = new ArrayList<>();
+        private final HashMap<String, Integer> otherIndices = new HashMap<>();
+
+        //capacity is the most SNPs that will be added
+        Builder(String chromosome, int capacity){
+            chrom = chromosome;
+            pos = new int[capacity];
+            calls = new byte[capacity];
+            snpIds = new int[capacity];
+            for (int i = 0; i < codes.size(); i++){
+                codeIndices.put(codes.get(i), i);
+            }
+        }
+
+        void add(int position, String id, String call, Double confidence) 
+                throws IOException{
+            if (n > 0 && position < pos[n - 1]){
+                throw new IOException("SNPs for chromosome " + chrom
+                        + " are not sorted by position");
+            }
+            pos[n] = position;
+            Integer code = codeIndices.get(call);
+            if (code == null){
+                //the no. of codes is written as a single unsigned byte
+                if (codes.size() >= MAX_CALL_CODES){
+                    throw new IOException("Too many different call codes for "
+                            + "chromosome " + chrom);
+                }
+                code = codes.size();
+                codes.add(call);
+                codeIndices.put(call, code);
+            }
+            calls[n] = (byte) code.intValue();
+            if (confidence != null){
+                if (conf == null){
+                    conf = new float[pos.length];
+                    Arrays.fill(conf, Float.NaN);
+                }
+                conf[n] = confidence.floatValue();
+            }
+            int rsNumber = parseRsNumber(id);
+            if (rsNumber >= 0){
+                snpIds[n] = rsNumber;
+            }else{
+                Integer other = otherIndices.get(id);
+                if (other == null){
+                    other = others.size();
+                    others.add(id);
+                    otherIndices.put(id, other);
+                }
+                snpIds[n] = -(other + 1);
+            }
+            n++;
+        }
+
+        ChromosomeStore build(){
+            //only copied if duplicates were left out
+            boolean full = n == pos.length;
+            return new ChromosomeStore(chrom, full ? pos : Arrays.copyOf(pos, n),
+                    full ? calls : Arrays.copyOf(calls, n), 
+                    conf == null || full ? conf : Arrays.copyOf(conf, n), 
+                    full ? snpIds : Arrays.copyOf(snpIds, n),
+                    codes.toArray(new String[codes.size()]),
+                    others.toArray(new String[others.size()]));
+        }
+    }
+
+    /* returns n for an ID of the form rsN (no leading zeros, N > 0), 0 for
+     * "---" and -1 for anything else, so that every ID converts back to
+     * exactly the same String
+     */
+    static int parseRsNumber(String id){
+        if (id == null){
+            return -1;
+        }
+        if (id.equals(NO_ID)){
+            return 0;
+        }
+        int len = id.length();
+        if (len < 3 || len > 12 || id.charAt(0) != 'r' || id.charAt(1) != 's'
+                || id.charAt(2) == '0'){
+            return -1;
+        }
+        long n = 0;
+        for (int i = 2; i < len; i++){
+            char c = id.charAt(i);
+            if (c < '0' || c > '9'){
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        if (n > Integer.MAX_VALUE){
+            return -1;
+        }
+        return (int) n;
+    }
+
+    public int size(){
+        return positions.length;
+    }
+
+    public String getChromosome(){
+        return chromosome;
+    }
+
+    public boolean hasConfidence(){
+        return confidences != null;
+    }
+
+    public int getPosition(int i){
+        return positions[i];
+    }
+
+    /* index of the call in callCodes - for the standard calls this is one
+     * of the PackedGenotypes codes
+     */
+    public int getGenotypeCode(int i){
+        if (packedGenotypes != null){
+            return packedGenotypes.get(i);
+        }
+        return genotypes[i] & 0xff;
+    }
+
+    public String getCall(int i){
+        return callCodes[getGenotypeCode(i)];
+    }
+
+    /* null if the input used non-standard call codes */
+    public PackedGenotypes getPackedGenotypes(){
+        return packedGenotypes;
+    }
+
+    /* no. of SNPs from (inclusive) to to (exclusive) that aren't NoCall */
+    public int countCalled(int from, int to){
+        if (packedGenotypes != null){
+            return packedGenotypes.countCalled(from, to);
+        }
+        int called = 0;
+        for (int i = from; i < to; i++){
+            if (!getCall(i).equalsIgnoreCase("NoCall")){
+                called++;
+            }
+        }
+        return called;
+    }
+
+    /* null if not available */
+    public Double getConfidence(int i){
+        if (confidences == null || Float.isNaN(confidences[i])){
+            return null;
+        }
+        return (double) confidences[i];
+    }
+
+    public String getId(int i){
+        int id = ids[i];
+        if (id > 0){
+            return "rs" + id;
+        }else if (id == 0){
+            return NO_ID;
+        }
+        return otherIds[-id - 1];
+    }
+
+    /* false if confidence is available and worse (higher) than filter.
+     * Confidences are compared as floats, which is how they are stored.
+     */
+    public boolean passesQualityFilter(int i, Double filter){
+        if (filter == null || filter < 0 || confidences == null){
+            return true;
+        }
+        return !(confidences[i] > filter.floatValue());
+    }
+
+    /* a store holding only the SNPs that pass filter, or this store if
+     * there is nothing to remove. The QUALITY_TIERS filters use the
+     * precomputed bitmaps.
+     */
+    public ChromosomeStore filter(Double filter){
+        if (filter == null || filter < 0 || confidences == null){
+            return this;
+        }
+        int tier = tierIndex(filter);
+        if (tier >= 0){
+            return subset(tierMasks[tier]);
+        }
+        return subset(i -> passesQualityFilter(i, filter));
+    }
+
+    /* SNPs from (inclusive) to to (inclusive), or this store if that is
+     * all of them
+     */
+    public ChromosomeStore range(int from, int to){
+        long[] mask = new long[presenceWords(size())];
+        for (int i = Math.max(0, from); i <= to && i < size(); i++){
+            mask[i >>> 6] |= 1L << i;
+        }
+        return subset(mask);
+    }
+
+    private ChromosomeStore subset(IntPredicate keep){
+        long[] mask = new long[presenceWords(size())];
+        for (int i = 0; i < size(); i++){
+            if (keep.test(i)){
+                mask[i >>> 6] |= 1L << i;
+            }
+        }
+        return subset(mask);
+    }
+
+    /* the SNPs whose bits are set in mask */
+    private ChromosomeStore subset(long[] mask){
+        int words = presenceWords(size());
+        int n = 0;
+        for (int w = 0; w < words; w++){
+            n += Long.bitCount(mask[w]);
+        }
+        if (n == size()){
+            return this;
+        }
+        int[] pos = new int[n];
+        PackedGenotypes packed = packedGenotypes == null ? null : 
+                new PackedGenotypes(n);
+        byte[] calls = genotypes == null ? null : new byte[n];
+        float[] conf = confidences == null ? null : new float[n];
+        long[][] tiers = tierMasks == null ? null : 
+                new long[tierMasks.length][presenceWords(n)];
+        int[] snpIds = new int[n];
+        int j = 0;
+        for (int w = 0; w < words; w++){
+            //visit only the set bits
+            for (long bits = mask[w]; bits != 0; bits &= bits - 1){
+                int i = (w << 6) + Long.numberOfTrailingZeros(bits);
+                pos[j] = positions[i];
+                if (packed != null){
+                    packed.set(j, packedGenotypes.get(i));
+                }else{
+                    calls[j] = genotypes[i];
+                }
+                if (conf != null){
+                    conf[j] = confidences[i];
+                }
+                if (tiers != null){
+                    for (int t = 0; t < tiers.length; t++){
+                        if ((tierMasks[t][i >>> 6] & (1L << i)) != 0){
+                            tiers[t][j >>> 6] |= 1L << j;
+                        }
+                    }
+                }
+                snpIds[j] = ids[i];
+                j++;
+            }
+        }
+        return new ChromosomeStore(chromosome, pos, packed, calls, conf, tiers,
+                snpIds, callCodes, otherIds, false);
+    }
+
+    /* true if index i of this store is the same marker as index i of other,
+     * i.e. both were read whole and unfiltered from files aligned to the 
+     * same catalog generation, so share its marker arrays
+     */
+    public boolean isAlignedWith(ChromosomeStore other){
+        return positions == other.positions && ids == other.ids 
+                && otherIds == other.otherIds;
+    }
+
+    /* approximate heap use in bytes, for ChromosomeCache */
+    public long estimateBytes(){
+        //catalog markers are only held once however many samples use them
+        long bytes = 64 + (sharedMarkers ? 4L : 12L) * size();
+        bytes += packedGenotypes != null ? packedGenotypes.estimateBytes() 
+                : genotypes.length;
+        if (tierMasks != null){
+            bytes += 8L * tierMasks.length * presenceWords(size());
+        }
+        if (sharedMarkers){
+            return bytes;
+        }
+        for (String id: otherIds){
+            bytes += 48 + 2 * id.length();
+        }
+        return bytes;
+    }
+
+    /* look for coordinate c and return its index if found. If not found
+     * return the index of the nearest SNP before c (if lookBack is true)
+     * or after c (if lookBack is false), or the first/last SNP if there is
+     * none.
+     */
+    public int nearestIndex(int c, boolean lookBack){
+        int l = 0;
+        int u = size() - 1;
+        int i = 0;
+        while (l <= u){
+            i = (u + l) >>> 1;
+            int x = positions[i];
+            if (x > c){
+                u = i - 1;
+            }else if (x < c){
+                l = i + 1;
+            }else{
+                return i;//found
+            }
+        }
+        if (lookBack){
+            for (int j = i; j > 0; j--){
+                if (positions[j] < c){
+                    return j;
+                }
+            }
+            return 0;
+        }else{
+            for (int j = i; j < size(); j++){
+                if (positions[j] > c){
+                    return j;
+                }
+            }
+            return size() - 1;
+        }
+    }
+
+    /* check for the magic number at the start of the file - older
+     * .snpview files are serialized ArrayLists of SnpLines
+     */
+    public static boolean isColumnarFile(File file) throws IOException{
+        try (InputStream in = new FileInputStream(file)){
+            return startsWithMagic(new BufferedInputStream(in));
+        }
+    }
+
+    /* true if file is columnar and the version written by this class */
+    public static boolean isCurrentVersion(File file) throws IOException{
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))){
+            return in.readInt() == MAGIC && in.readShort() == VERSION;
+        }catch (EOFException ex){
+            return false;
+        }
+    }
+
+    /* check for the magic number without consuming it, so that the stream
+     * can be passed to read or to an ObjectInputStream afterwards
+     */
+    public static boolean startsWithMagic(BufferedInputStream in) throws IOException{
+        in.mark(4);
+        try{
+            return new DataInputStream(in).readInt() == MAGIC;
+        }catch (EOFException ex){
+            return false;
+        }finally{
+            in.reset();
+        }
+    }
+
+    /* write with positions and ids in the file itself */
+    public void write(File file) throws IOException{
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)))){
+            writeHeader(out, positions.length, 0, otherIds.length);
+            for (int p: positions){
+                out.writeInt(p);
+            }
+            writeGenotypes(out, packedGenotypes, genotypes, positions.length);
+            if (confidences != null){
+                for (float c: confidences){
+                    out.writeFloat(c);
+                }
+                writeTierMasks(out, tierMasks);
+            }
+            for (int id: ids){
+                out.writeInt(id);
+            }
+            writeOtherIds(out, otherIds);
+        }
+    }
+
+    /* write genotypes and confidences only, aligned to markers. index[i] is
+     * the catalog index of SNP i - markers the sample doesn't have are
+     * written as NoCall with no confidence and left out of the presence
+     * bitmap.
+     */
+    void writeAligned(File file, MarkerCatalog.Markers markers, int[] index)
+            throws IOException{
+        int n = markers.size();
+        boolean partial = index.length < n;
+        long[] present = partial ? new long[presenceWords(n)] : null;
+        //code 0 is always NoCall, so absent markers need no setting
+        PackedGenotypes packed = packedGenotypes == null ? null : 
+                new PackedGenotypes(n);
+        byte[] calls = genotypes == null ? null : new byte[n];
+        float[] conf = null;
+        if (confidences != null){
+            conf = new float[n];
+            Arrays.fill(conf, Float.NaN);
+        }
+        for (int i = 0; i < index.length; i++){
+            int c = index[i];
+            if (present != null){
+                present[c >>> 6] |= 1L << c;
+            }
+            if (packed != null){
+                packed.set(c, packedGenotypes.get(i));
+            }else{
+                calls[c] = genotypes[i];
+            }
+            if (conf != null){
+                conf[c] = confidences[i];
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)))){
+            writeHeader(out, n, FLAG_CATALOG | (partial ? FLAG_PARTIAL : 0), 0);
+            out.writeInt(markers.getGeneration());
+            if (present != null){
+                for (long w: present){
+                    out.writeLong(w);
+                }
+            }
+            writeGenotypes(out, packed, calls, n);
+            if (conf != null){
+                for (float c: conf){
+                    out.writeFloat(c);
+                }
+                writeTierMasks(out, computeTierMasks(conf));
+            }
+        }
+    }
+
+    private static void writeTierMasks(DataOutputStream out, long[][] masks)
+            throws IOException{
+        for (long[] mask: masks){
+            for (long w: mask){
+                out.writeLong(w);
+            }
+        }
+    }
+
+    private void writeHeader(DataOutputStream out, int n, int flags, 
+            int otherIdCount) throws IOException{
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        writeString(out, chromosome);
+        out.writeInt(n);
+        out.writeByte(flags | (confidences == null ? 0 : FLAG_CONFIDENCE)
+                | (packedGenotypes == null ? 0 : FLAG_PACKED));
+        if (callCodes.length > MAX_CALL_CODES){
+            throw new IOException("Too many different call codes for "
+                    + "chromosome " + chromosome);
+        }
+        out.writeByte(callCodes.length);
+        for (String code: callCodes){
+            writeString(out, code);
+        }
+        out.writeInt(otherIdCount);
+    }
+
+    private static void writeGenotypes(DataOutputStream out, 
+            PackedGenotypes packed, byte[] calls, int n) throws IOException{
+        if (packed != null){
+            long[] words = packed.getWords();
+            for (int w = 0; w < PackedGenotypes.wordsFor(n); w++){
+                out.writeLong(words[w]);
+            }
+        }else{
+            out.write(calls);
+        }
+    }
+
+    /* other IDs as offsets into a block of UTF-8 so each can be read alone */
+    static void writeOtherIds(DataOutputStream out, String[] others) 
+            throws IOException{
+        byte[][] idBytes = new byte[others.length][];
+        int offset = 0;
+        for (int i = 0; i < others.length; i++){
+            idBytes[i] = others[i].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(offset);
+            offset += idBytes[i].length;
+        }
+        out.writeInt(offset);
+        for (byte[] bytes: idBytes){
+            out.write(bytes);
+        }
+    }
+
+    /* count other IDs from the current position of buf, leaving buf after
+     * the UTF-8 block
+     */
+    static String[] readOtherIds(ByteBuffer buf, int count){
+        String[] others = new String[count];
+        int offsets = buf.position();
+        int blob = offsets + 4 * (count + 1);
+        for (int i = 0; i < count; i++){
+            others[i] = readOtherId(buf, offsets, blob, i);
+        }
+        buf.position(blob + buf.getInt(offsets + 4 * count));
+        return others;
+    }
+
+    /* no. of longs in the bitmap of markers present in a partial file */
+    static int presenceWords(int n){
+        return (n + 63) / 64;
+    }
+
+    public static ChromosomeStore read(File file) throws IOException{
+        try (InputStream in = new FileInputStream(file)){
+            return read(in, file);
+        }
+    }
+
+    /* reads the rest of in, which should be positioned at the magic number
+     * of file. The file is needed to find the catalog of a project file.
+     */
+    public static ChromosomeStore read(InputStream in, File file) throws IOException{
+        String name = file.getName();
+        ByteBuffer buf = ByteBuffer.wrap(in.readAllBytes());
+        Header h = readHeader(buf, name);
+        try{
+            int n = h.size;
+            MarkerCatalog.Markers markers = null;
+            long[] present = null;
+            int[] pos = null;
+            if (h.catalogGeneration >= 0){
+                markers = MarkerCatalog.forChromFile(file).getMarkers(
+                        h.chromosome, h.catalogGeneration);
+                if (markers.size() != n){
+                    throw new IOException(name + " does not match marker catalog "
+                            + "generation " + h.catalogGeneration);
+                }
+                if (h.partial){
+                    present = new long[presenceWords(n)];
+                    buf.asLongBuffer().get(present);
+                    buf.position(buf.position() + 8 * present.length);
+                }
+            }else{
+                pos = new int[n];
+                buf.asIntBuffer().get(pos);
+                buf.position(buf.position() + 4 * n);
+            }
+            PackedGenotypes packed = null;
+            byte[] calls = null;
+            if (h.packedGenotypes){
+                long[] words = new long[PackedGenotypes.wordsFor(n)];
+                buf.asLongBuffer().get(words);
+                buf.position(buf.position() + 8 * words.length);
+                packed = new PackedGenotypes(words, n);
+            }else{
+                calls = new byte[n];
+                buf.get(calls);
+            }
+            float[] conf = null;
+            long[][] tiers = null;
+            if (h.hasConfidence){
+                conf = new float[n];
+                buf.asFloatBuffer().get(conf);
+                buf.position(buf.position() + 4 * n);
+                tiers = new long[QUALITY_TIERS.length][presenceWords(n)];
+                for (long[] mask: tiers){
+                    buf.asLongBuffer().get(mask);
+                    buf.position(buf.position() + 8 * mask.length);
+                }
+            }
+            if (markers != null){
+                ChromosomeStore store = new ChromosomeStore(h.chromosome, 
+                        markers.positions, packed, calls, conf, tiers, 
+                        markers.ids, h.callCodes, markers.otherIds, true);
+                if (present == null){
+                    return store;
+                }
+                return store.subset(present);
+            }
+            int[] snpIds = new int[n];
+            buf.asIntBuffer().get(snpIds);
+            buf.position(buf.position() + 4 * n);
+            String[] others = readOtherIds(buf, h.otherIdCount);
+            return new ChromosomeStore(h.chromosome, pos, packed, calls, conf, 
+                    tiers, snpIds, h.callCodes, others, false);
+        }catch (BufferUnderflowException | IndexOutOfBoundsException ex){
+            throw new IOException(name + " is truncated", ex);
+        }
+    }
+
+    /* reads the header from the start of buf, leaving buf positioned at the
+     * first column
+     */
+    static Header readHeader(ByteBuffer buf, String name) throws IOException{
+        try{
+            Header h = new Header();
+            if (buf.getInt() != MAGIC){
+                throw new IOException(name + " is not a columnar .snpview file");
+            }
+            h.version = buf.getShort();
+            if (h.version != VERSION){
+                throw new IOException("Unsupported .snpview version ("
+                        + h.version + ") for " + name);
+            }
+            h.chromosome = readString(buf);
+            h.size = buf.getInt();
+            int flags = buf.get();
+            h.hasConfidence = (flags & FLAG_CONFIDENCE) != 0;
+            h.packedGenotypes = (flags & FLAG_PACKED) != 0;
+            h.partial = (flags & FLAG_PARTIAL) != 0;
+            h.callCodes = new String[buf.get() & 0xff];
+            for (int i = 0; i < h.callCodes.length; i++){
+                h.callCodes[i] = readString(buf);
+            }
+            h.otherIdCount = buf.getInt();
+            if ((flags & FLAG_CATALOG) != 0){
+                h.catalogGeneration = buf.getInt();
+            }
+            return h;
+        }catch (BufferUnderflowException ex){
+            throw new IOException(name + " is truncated", ex);
+        }
+    }
+
+    /* other ID i from a table of offsets starting at offsets followed by
+     * the UTF-8 block starting at blob
+     */
+    static String readOtherId(ByteBuffer buf, int offsets, int blob, int i){
+        int start = buf.getInt(offsets + 4 * i);
+        int end = buf.getInt(offsets + 4 * (i + 1));
+        byte[] bytes = new byte[end - start];
+        for (int b = 0; b < bytes.length; b++){
+            bytes[b] = buf.get(blob + start + b);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /* fields from the start of a file - the columns that follow are all
+     * fixed width so can be read at any index
+     */
+    static class Header{
+        short version;
+        String chromosome;
+        int size;
+        boolean hasConfidence;
+        boolean packedGenotypes;
+        String[] callCodes;
+        int otherIdCount;
+        int catalogGeneration = -1;//-1 unless positions and ids are in a catalog
+        boolean partial;//catalog files only - true if there is a presence bitmap
+    }
+
+    static void writeString(DataOutputStream out, String s)
+            throws IOException{
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buf){
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How the colour of a pixel column is chosen when more than one SNP falls
+ * in it.
+ *
+ * @author david
+ */
+public enum ColumnColorRule {
+    //the most common genotype in the column
+    MAJORITY,
+    //heterozygous if any SNP in the column is, otherwise the majority
+    ANY_HET,
+    //the genotype colours mixed in proportion to their counts
+    BLENDED;
+
+    //-Dsnpviewer.columnColorRule=MAJORITY|ANY_HET|BLENDED
+    static ColumnColorRule getDefault(){
+        String rule = System.getProperty("snpviewer.columnColorRule");
+        if (rule != null){
+            try{
+                return valueOf(rule.trim().toUpperCase());
+            }catch (IllegalArgumentException ex){
+                Logger.getLogger(ColumnColorRule.class.getName()).log(
+                        Level.WARNING, "Unknown column color rule {0} - using "
+                        + "ANY_HET instead", rule);
+            }
+        }
+        return ANY_HET;
+    }
+}
@@ -3,7 +3,7 @@
  * Copyright (C) 2013 David A. Parry
  * d.a.parry@leeds.ac.uk
  * https://sourceforge.net/projects/snpviewer/
- * 
+ *
     This program is free software: you can redistribute it and/or modify
     it under the terms of the GNU General Public License as published by
     the Free Software Foundation, either version 3 of the License, or
@@ -18,121 +18,147 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package snpviewer;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
 
 /**
+ * Draws the genotypes of one sample for a chromosome (or a region of one)
+ * into a ChromosomeRaster sized to the pane. Genotypes are counted per
+ * pixel column from the sample's TilePyramid and each column is then
+ * coloured using the ColumnColorRule.
+ *
+ * All panes are drawn at once on a shared pool of one thread per processor
+ * (or -Dsnpviewer.drawThreads=N), so a view of many samples is drawn in
+ * parallel but never runs more draws at a time than the pool allows.
  *
  * @author david
  */
-public class DrawSnpsToPane extends Service{
+public class DrawSnpsToPane extends Service<ChromosomeRaster>{
+    static final int DEFAULT_THREADS = Integer.getInteger("snpviewer.drawThreads",
+            Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService DRAW_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(1, DEFAULT_THREADS), r -> {
+                Thread t = new Thread(r, "snpview-draw");
+                t.setDaemon(true);
+                return t;
+            });
     Pane pane;
     SnpFile snpFile;
     String chrom;
-    HashMap<String, Integer> colorMap = new HashMap<>();
+    HashMap<String, Integer> colorMap = new HashMap<>();//call to ARGB colour
     Double startPos;
     Double endPos;
-    DrawSnpsToPane(Pane p, SnpFile s, String c){
-        this(p, s, c, 0, 1, 2, null, null);
-    }
-    DrawSnpsToPane(Pane p, SnpFile s, String c, double start, double end){
-        this(p, s, c, 0, 1, 2, start, end);
-    }
-    DrawSnpsToPane(Pane p, SnpFile s, String c, int aa, int bb, int ab){
+    //read once, so the image drawn and the cache entry for it always agree
+    final Double qualityFilter;
+    ColumnColorRule columnColorRule = ColumnColorRule.getDefault();
+    DrawSnpsToPane(Pane p, SnpFile s, String c, Color aa, Color bb, Color ab){
         this(p, s, c, aa, bb, ab, null, null);
     }
-    DrawSnpsToPane(Pane p, SnpFile s, String c, int aa, int bb, int ab, Double start, Double end){
+    DrawSnpsToPane(Pane p, SnpFile s, String c, Color aa, Color bb, Color ab, 
+            Double start, Double end){
         
         pane = p;
         snpFile = s;
         chrom = c;
-        colorMap.put("aa", aa);
-        colorMap.put("bb", bb);
-        colorMap.put("ab", ab);
+        colorMap.put("aa", ChromosomeRaster.toArgb(aa));
+        colorMap.put("bb", ChromosomeRaster.toArgb(bb));
+        colorMap.put("ab", ChromosomeRaster.toArgb(ab));
         startPos = start;
         endPos = end;
+        qualityFilter = s.getQualityFilter();
+        setExecutor(DRAW_EXECUTOR);
     }
     
     
     
+    public void setColumnColorRule(ColumnColorRule rule){
+        columnColorRule = rule;
+    }
+    
+    /* the no. of pixels drawn for a pane (or caching for a pane) of this
+     * width or height - used everywhere images are drawn or looked up so 
+     * that fractional sizes always round the same way
+     */
+    static int pixels(double size){
+        return Math.max(1, (int) Math.ceil(size));
+    }
+    
     @Override
-    protected  Task<ArrayList<HashMap<String, Double>>> createTask() {
-        return new Task<ArrayList<HashMap<String, Double>>>() {
+    protected  Task<ChromosomeRaster> createTask() {
+        //pane size is read here on the FX thread
+        final double width = pane.getMinWidth();
+        final double height = pane.getMinHeight();
+        return new Task<ChromosomeRaster>() {
             @Override
-            protected ArrayList<HashMap<String, Double>> call() throws Exception {
-                ArrayList<HashMap<String, Double>> lines = new ArrayList<>();
-                double width = pane.getMinWidth();
-                double height = pane.getMinHeight();
-                if (! snpFile.chromFiles.containsKey(chrom)){
+            protected ChromosomeRaster call() throws Exception {
+                updateMessage("Drawing genotypes");
+                ChromosomeRaster raster;
+                try{
+                    raster = render(snpFile, chrom, pixels(width), 
+                            pixels(height), colorMap.get("aa"), 
+                            colorMap.get("bb"), colorMap.get("ab"), startPos, 
+                            endPos, qualityFilter, columnColorRule, 
+                            this::isCancelled);
+                }catch (IOException ex){
                     return null;
                 }
-                List<SnpFile.SnpLine> snpLines = new ArrayList<>();                
-                ChromosomeLength chromLength = new ChromosomeLength();
-                double factor;
-                if (startPos == null || endPos == null){
-                    snpLines = snpFile.readChromFile(chrom);
-                                               
-                    try {
-                        factor = width/chromLength.getlength(snpFile.buildVersion, chrom);
-                    }catch (Exception ex){
-                        //use last coordinate for scaling if chrom length unavailable
-                        SnpFile.SnpLine lastLine = snpLines.get(snpLines.size()-1);
-                        double lastPos = (double) lastLine.getPosition();
-                        //System.out.println("Last position is " + lastPos);
-                        factor = width/lastPos;
-                    }
-                }else{
-                    snpLines = snpFile.getSnpsInRegion(chrom, startPos.intValue(), 
-                            endPos.intValue());
-                    factor = width / (endPos - startPos);
-                }
-                if(snpLines == null){
+                if (isCancelled()){
+                    updateMessage("Cancelled");
                     return null;
                 }
-                int lineNumber = 0;
-                int totalLines = snpLines.size();
-                updateMessage("Drawing genotypes");
-                for (SnpFile.SnpLine callLine: snpLines){
-                    if (isCancelled()){
-                        updateMessage("Cancelled");
-                        lines.clear();
-                    }
-                    updateProgress(++lineNumber, totalLines);
-                    HashMap<String, Double> lineToDraw = new HashMap<>();
-                    double coordinate = (double) callLine.getPosition();
-                    if (startPos != null){
-                        coordinate -= startPos;
-                        if (coordinate < 0){
-                            continue;
-                        }
-                    }
-                    lineToDraw.put("x", factor * coordinate);
-                    lineToDraw.put("y", height);
-                    String call = callLine.getCall();
-                    if (colorMap.containsKey(call.toLowerCase())){
-                        lineToDraw.put("color", colorMap.get(call.toLowerCase()).doubleValue());
-                        lines.add(lineToDraw);
-                    }else if (call.equalsIgnoreCase("NoCall")){
-                        //lineToDraw.setStroke(Color.GRAY);
-                        continue;
-                    }else{//ERROR! - should throw an exception really
-                        System.out.println("Error for call code " + call);
-                        //lineToDraw.setStroke(Color.YELLOW);
-                        continue;
-                    }
-                }
-
-                return lines;
-        
+                return raster;
             }//end of call
         };//end of task
     }//end of create task
+    
+    /* draw chrom of snpFile as a w x h image, from start to end if both are
+     * given or else the whole chromosome. Colours are ARGB. Returns null if
+     * there is nothing to draw or cancelled becomes true while binning. 
+     * Doesn't touch the scene graph so can be called from any thread.
+     */
+    static ChromosomeRaster render(SnpFile snpFile, String chrom, int w, int h,
+            int aaColor, int bbColor, int abColor, Double startPos, Double endPos,
+            Double filter, ColumnColorRule rule, BooleanSupplier cancelled) 
+            throws IOException{
+        if (! snpFile.chromFiles.containsKey(chrom) || w < 1 || h < 1){
+            return null;
+        }
+        ChromosomeLength chromLength = new ChromosomeLength();
+        double start = startPos == null ? 0 : startPos;
+        double end;
+        if (startPos == null || endPos == null){
+            try {
+                end = chromLength.getlength(snpFile.buildVersion, chrom);
+            }catch (Exception ex){
+                //use last coordinate for scaling if chrom length unavailable
+                ChromosomeStore store = snpFile.getChromosomeStore(chrom, filter);
+                if (store == null || store.size() == 0){
+                    return null;
+                }
+                end = (double) store.getPosition(store.size() - 1);
+            }
+        }else{
+            end = endPos;
+        }
+        GenotypeBins bins = new TilePyramid(snpFile, chrom, filter).binRegion(
+                start, end, w, cancelled);
+        if (bins == null){
+            return null;
+        }
+        int[] columns = bins.columnColors(rule, aaColor, bbColor, abColor, 
+                ChromosomeRaster.BACKGROUND);
+        return ChromosomeRaster.fromColumns(columns, h);
+    }
 
 
 }
@@ -0,0 +1,357 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package snpviewer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Sorts SNP records by position within each chromosome using a fixed memory
+ * budget. Each record is routed straight into a bucket for its chromosome
+ * made of primitive arrays, so no comparisons between chromosome Strings are
+ * needed. If the budget is used up the largest bucket is sorted and spilled
+ * to a temporary run file. Buckets are sorted independently (in parallel)
+ * and each chromosome is then merged back from its runs and bucket with a
+ * k-way merge, so memory use depends on the budget and the size of the
+ * largest chromosome rather than the number of markers in the input.
+ *
+ * @author david
+ */
+public class ExternalSnpSorter implements Closeable {
+    //rough heap cost of one buffered record including its rs ID String
+    static final int ESTIMATED_RECORD_BYTES = 80;
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_BUCKET_SIZE = 1024;
+
+    private final File tempDirectory;
+    private final long maxBufferedRecords;
+    private long bufferedRecords = 0;
+    private int size = 0;
+    private final LinkedHashMap<String, Bucket> buckets = new LinkedHashMap<>();
+    private final ArrayList<String> callCodes = new ArrayList<>();
+    private final HashMap<String, Short> callIndices = new HashMap<>();
+    //last bucket used - input is usually grouped by chromosome
+    private Bucket lastBucket;
+
+    /* runs are written to tempDir */
+    ExternalSnpSorter(File tempDir, long memoryBudget){
+        tempDirectory = tempDir;
+        maxBufferedRecords = Math.max(1000, memoryBudget/ESTIMATED_RECORD_BYTES);
+    }
+
+    /* confidence should be NaN if not available */
+    public void add(String chrom, int position, String id, String call,
+            double confidence) throws IOException{
+        Bucket bucket = lastBucket;
+        if (bucket == null || bucket.chromosome != chrom){
+            bucket = buckets.get(chrom);
+            if (bucket == null){
+                bucket = new Bucket(chrom);
+                buckets.put(chrom, bucket);
+            }
+            lastBucket = bucket;
+        }
+        bucket.add(position, id, getCallIndex(call), confidence);
+        size++;
+        if (++bufferedRecords >= maxBufferedRecords){
+            spillLargestBucket();
+        }
+    }
+
+    private short getCallIndex(String call) throws IOException{
+        Short index = callIndices.get(call);
+        if (index == null){
+            if (callCodes.size() >= Short.MAX_VALUE){
+                throw new IOException("Too many different call codes in input");
+            }
+            index = (short) callCodes.size();
+            callCodes.add(call);
+            callIndices.put(call, index);
+        }
+        return index;
+    }
+
+    /* total no. of records added */
+    public int size(){
+        return size;
+    }
+
+    /* chromosomes in the order they were first seen */
+    public List<String> getChromosomes(){
+        return new ArrayList<>(buckets.keySet());
+    }
+
+    public int getRunCount(){
+        int runs = 0;
+        for (Bucket b: buckets.values()){
+            runs += b.runs.size();
+        }
+        return runs;
+    }
+
+    private void spillLargestBucket() throws IOException{
+        Bucket largest = null;
+        for (Bucket b: buckets.values()){
+            if (largest == null || b.count > largest.count){
+                largest = b;
+            }
+        }
+        bufferedRecords -= largest.count;
+        largest.spill();
+    }
+
+    /* sort the records still in memory for every chromosome, one chromosome
+     * per thread
+     */
+    public void sortBuckets(){
+        buckets.values().parallelStream().forEach(b -> b.sort());
+    }
+
+    /* merge the runs and in-memory records for chrom. Records at the same
+     * position are returned in the order they were added. sortBuckets must
+     * have been called first.
+     */
+    public SortedChromosome getSortedChromosome(String chrom) throws IOException{
+        Bucket bucket = buckets.get(chrom);
+        if (bucket == null){
+            return null;
+        }
+        SortedChromosome sorted = new SortedChromosome(chrom, bucket.total);
+        ArrayList<RunReader> readers = new ArrayList<>();
+        try{
+            for (File run: bucket.runs){
+                RunReader r = new RunReader(run);
+                readers.add(r);
+                r.advance();
+            }
+            int bufferIndex = 0;
+            for (int i = 0; i < bucket.total; i++){
+                /*runs were spilled before the records still in memory were
+                 * added, so on ties take the earliest run first
+                 */
+                RunReader next = null;
+                for (RunReader r: readers){
+                    if (r.hasNext && (next == null || r.position < next.position)){
+                        next = r;
+                    }
+                }
+                if (bufferIndex < bucket.count && (next == null ||
+                        bucket.positions[bufferIndex] < next.position)){
+                    sorted.set(i, bucket.positions[bufferIndex],
+                            bucket.ids[bufferIndex],
+                            callCodes.get(bucket.calls[bufferIndex]),
+                            bucket.confidences[bufferIndex]);
+                    bufferIndex++;
+                }else{
+                    sorted.set(i, next.position, next.id,
+                            callCodes.get(next.call), next.confidence);
+                    next.advance();
+                }
+            }
+        }finally{
+            for (RunReader r: readers){
+                r.close();
+            }
+        }
+        return sorted;
+    }
+
+    /* release a chromosome once it has been written */
+    public void release(String chrom){
+        Bucket bucket = buckets.remove(chrom);
+        if (bucket != null){
+            bucket.deleteRuns();
+        }
+        if (lastBucket == bucket){
+            lastBucket = null;
+        }
+    }
+
+    /* deletes any run files */
+    @Override
+    public void close(){
+        for (Bucket b: buckets.values()){
+            b.deleteRuns();
+        }
+        buckets.clear();
+        lastBucket = null;
+    }
+
+    /* all records for one chromosome in position order */
+    public static class SortedChromosome{
+        final String chromosome;
+        final int[] positions;
+        final String[] ids;
+        final String[] calls;
+        final double[] confidences;//NaN where not available
+
+        SortedChromosome(String chrom, int n){
+            chromosome = chrom;
+            positions = new int[n];
+            ids = new String[n];
+            calls = new String[n];
+            confidences = new double[n];
+        }
+
+        void set(int i, int pos, String id, String call, double confidence){
+            positions[i] = pos;
+            ids[i] = id;
+            calls[i] = call;
+            confidences[i] = confidence;
+        }
+
+        public int size(){
+            return positions.length;
+        }
+    }
+
+    private class Bucket{
+        final String chromosome;
+        int[] positions = new int[INITIAL_BUCKET_SIZE];
+        String[] ids = new String[INITIAL_BUCKET_SIZE];
+        short[] calls = new short[INITIAL_BUCKET_SIZE];
+        double[] confidences = new double[INITIAL_BUCKET_SIZE];
+        int count = 0;//records in memory
+        int total = 0;//records in memory and runs
+        final ArrayList<File> runs = new ArrayList<>();
+
+        Bucket(String chrom){
+            chromosome = chrom;
+        }
+
+        void add(int position, String id, short call, double confidence){
+            if (count == positions.length){
+                int newSize = positions.length * 2;
+                positions = Arrays.copyOf(positions, newSize);
+                ids = Arrays.copyOf(ids, newSize);
+                calls = Arrays.copyOf(calls, newSize);
+                confidences = Arrays.copyOf(confidences, newSize);
+            }
+            positions[count] = position;
+            ids[count] = id;
+            calls[count] = call;
+            confidences[count] = confidence;
+            count++;
+            total++;
+        }
+
+        /* sort in-memory records by position with a primitive sort - each
+         * key is the position in the high bits and the original index in
+         * the low bits, which also keeps records at the same position in
+         * the order they were added
+         */
+        void sort(){
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++){
+                keys[i] = ((long) positions[i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[] sortedPositions = new int[count];
+            String[] sortedIds = new String[count];
+            short[] sortedCalls = new short[count];
+            double[] sortedConfidences = new double[count];
+            for (int i = 0; i < count; i++){
+                int j = (int) keys[i];
+                sortedPositions[i] = positions[j];
+                sortedIds[i] = ids[j];
+                sortedCalls[i] = calls[j];
+                sortedConfidences[i] = confidences[j];
+            }
+            positions = sortedPositions;
+            ids = sortedIds;
+            calls = sortedCalls;
+            confidences = sortedConfidences;
+        }
+
+        void spill() throws IOException{
+            sort();
+            File run = File.createTempFile("snpsortrun", ".tmp", tempDirectory);
+            run.deleteOnExit();
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(run), RUN_BUFFER_SIZE))){
+                for (int i = 0; i < count; i++){
+                    out.writeInt(positions[i]);
+                    out.writeUTF(ids[i]);
+                    out.writeShort(calls[i]);
+                    out.writeDouble(confidences[i]);
+                }
+            }
+            count = 0;
+            positions = new int[INITIAL_BUCKET_SIZE];
+            ids = new String[INITIAL_BUCKET_SIZE];
+            calls = new short[INITIAL_BUCKET_SIZE];
+            confidences = new double[INITIAL_BUCKET_SIZE];
+        }
+
+        void deleteRuns(){
+            for (File run: runs){
+                run.delete();
+            }
+            runs.clear();
+        }
+    }
+
+    private static class RunReader implements Closeable{
+        private final DataInputStream in;
+        boolean hasNext = false;
+        int position;
+        String id;
+        short call;
+        double confidence;
+
+        RunReader(File run) throws IOException{
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(run), RUN_BUFFER_SIZE));
+        }
+
+        void advance() throws IOException{
+            try{
+                position = in.readInt();
+            }catch (EOFException ex){
+                hasNext = false;
+                return;
+            }
+            id = in.readUTF();
+            call = in.readShort();
+            confidence = in.readDouble();
+            hasNext = true;
+        }
+
+        @Override
+        public void close() throws IOException{
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.util.Arrays;
+
+/**
+ * Counts of AA, BB and AB calls for each pixel column of a drawn
+ * chromosome, or of a TilePyramid tile. However many SNPs there are the
+ * column colours are picked in a pass over the width, and the counts take
+ * only three ints per column.
+ *
+ * @author david
+ */
+public class GenotypeBins {
+    static final int NONE = -1;
+    static final int AA = 0;
+    static final int BB = 1;
+    static final int AB = 2;
+
+    private final int[][] counts = new int[3][];
+    private final int width;
+
+    GenotypeBins(int w){
+        width = w;
+        for (int g = 0; g < counts.length; g++){
+            counts[g] = new int[w];
+        }
+    }
+
+    /* AA, BB, AB (or NONE for NoCall and anything else) for each of the
+     * store's genotype codes
+     */
+    static int[] genotypeTypes(ChromosomeStore store){
+        int[] types = new int[store.callCodes.length];
+        for (int c = 0; c < types.length; c++){
+            String call = store.callCodes[c];
+            if (call.equalsIgnoreCase("AA")){
+                types[c] = AA;
+            }else if (call.equalsIgnoreCase("BB")){
+                types[c] = BB;
+            }else if (call.equalsIgnoreCase("AB")){
+                types[c] = AB;
+            }else{
+                types[c] = NONE;
+            }
+        }
+        return types;
+    }
+
+    void add(int type, int x, int n){
+        counts[type][x] += n;
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getCount(int type, int x){
+        return counts[type][x];
+    }
+
+    /* ARGB colour of each column under rule, given the ARGB colours of the
+     * genotypes - columns with no calls are background
+     */
+    int[] columnColors(ColumnColorRule rule, int aaColor, int bbColor, 
+            int abColor, int background){
+        int[] colors = new int[width];
+        Arrays.fill(colors, background);
+        int[] genotypeColors = {aaColor, bbColor, abColor};
+        for (int x = 0; x < width; x++){
+            int aa = counts[AA][x];
+            int bb = counts[BB][x];
+            int ab = counts[AB][x];
+            if (aa + bb + ab == 0){
+                continue;
+            }
+            switch (rule){
+                case BLENDED:
+                    colors[x] = blend(genotypeColors, aa, bb, ab);
+                    break;
+                case ANY_HET:
+                    if (ab > 0){
+                        colors[x] = abColor;
+                    }else{
+                        colors[x] = aa >= bb ? aaColor : bbColor;
+                    }
+                    break;
+                default://MAJORITY - ties go to AB, then AA
+                    if (ab >= aa && ab >= bb){
+                        colors[x] = abColor;
+                    }else{
+                        colors[x] = aa >= bb ? aaColor : bbColor;
+                    }
+            }
+        }
+        return colors;
+    }
+
+    //each ARGB channel averaged, weighted by the genotype counts
+    private static int blend(int[] genotypeColors, int aa, int bb, int ab){
+        int[] weights = {aa, bb, ab};
+        int total = aa + bb + ab;
+        int blended = 0;
+        for (int shift = 0; shift < 32; shift += 8){
+            long sum = 0;
+            for (int g = 0; g < weights.length; g++){
+                sum += (long) ((genotypeColors[g] >>> shift) & 0xff) * weights[g];
+            }
+            blended |= (int) ((sum + total / 2) / total) << shift;
+        }
+        return blended;
+    }
+}
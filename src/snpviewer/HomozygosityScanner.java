@@ -0,0 +1,181 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds runs of homozygosity in one sample's genotypes for a chromosome.
+ * No calls are left out - SNPs with a call are numbered consecutively (the
+ * "called index") and prefix sums of heterozygous calls are taken over
+ * them once, so the no. of hets in any window of called SNPs is a 
+ * subtraction and a whole chromosome is scanned in one linear pass. The
+ * nearest het either side of every called SNP is also recorded so that 
+ * refining the edges of a run doesn't have to search each window.
+ *
+ * As in RegionFinder's original window test, a window is homozygous if
+ * its hets divided by its homozygous calls is below the cutoff.
+ *
+ * All indices taken and returned are called indices - use getIndex to 
+ * convert them back to indices of the genotypes passed in.
+ *
+ * @author david
+ */
+public class HomozygosityScanner {
+    private final int[] calledIndices;//index of each called SNP in the input
+    private final int[] hetCounts;//hets among called SNPs before each index
+    private final int[] previousHet;//last het at or before, or -1
+    private final int[] nextHet;//first het at or after, or size()
+
+    /* codes are SampleGenotypes codes - every call but AB is homozygous */
+    HomozygosityScanner(byte[] codes){
+        int m = 0;
+        for (byte c: codes){
+            if (c != SampleGenotypes.NO_CALL){
+                m++;
+            }
+        }
+        calledIndices = new int[m];
+        hetCounts = new int[m + 1];
+        previousHet = new int[m];
+        nextHet = new int[m];
+        int k = 0;
+        int lastHet = -1;
+        for (int i = 0; i < codes.length; i++){
+            if (codes[i] == SampleGenotypes.NO_CALL){
+                continue;
+            }
+            calledIndices[k] = i;
+            boolean het = codes[i] == SampleGenotypes.AB;
+            hetCounts[k + 1] = hetCounts[k] + (het ? 1 : 0);
+            if (het){
+                lastHet = k;
+            }
+            previousHet[k] = lastHet;
+            k++;
+        }
+        int followingHet = m;
+        for (k = m - 1; k >= 0; k--){
+            if (previousHet[k] == k){
+                followingHet = k;
+            }
+            nextHet[k] = followingHet;
+        }
+    }
+
+    /* no. of called SNPs */
+    public int size(){
+        return calledIndices.length;
+    }
+
+    /* index in the genotypes passed in of called SNP k */
+    public int getIndex(int k){
+        return calledIndices[k];
+    }
+
+    /* hets among called SNPs from (inclusive) to to (exclusive) */
+    public int countHets(int from, int to){
+        return hetCounts[to] - hetCounts[from];
+    }
+
+    private boolean isHomozygous(int from, int to, double hetCutoff){
+        int hets = countHets(from, to);
+        int homs = (to - from) - hets;
+        if (homs == 0){
+            return false;
+        }
+        return (double) hets / (double) homs < hetCutoff;
+    }
+
+    /* true if hets/homs is over cutoff, counting any hets with no homs */
+    private boolean isHeterozygous(int from, int to, double cutoff){
+        int hets = countHets(from, to);
+        int homs = (to - from) - hets;
+        if (homs == 0){
+            return hets > 0;
+        }
+        return (double) hets / (double) homs > cutoff;
+    }
+
+    /* homozygous windows of window called SNPs, every half window, merged 
+     * where they overlap. Each run is {first, last} (inclusive) in called
+     * indices, in order.
+     */
+    public List<int[]> findRuns(int window, double hetCutoff){
+        ArrayList<int[]> runs = new ArrayList<>();
+        int m = size();
+        int step = Math.max(1, window / 2);
+        int k;
+        for (k = 0; k < m - window; k += step){
+            if (isHomozygous(k, k + window, hetCutoff)){
+                addRun(runs, k, k + window - 1);
+            }
+        }
+        //collect remainder
+        if (k < m && isHomozygous(k, m, hetCutoff)){
+            addRun(runs, k, m - 1);
+        }
+        return runs;
+    }
+
+    private void addRun(ArrayList<int[]> runs, int first, int last){
+        if (!runs.isEmpty()){
+            int[] previous = runs.get(runs.size() - 1);
+            if (previous[1] >= first){
+                previous[1] = Math.max(previous[1], last);
+                return;
+            }
+        }
+        runs.add(new int[]{first, last});
+    }
+
+    /* move the start of a run back to the edge of a clearly heterozygous 
+     * stretch - windows of window called SNPs are tried from one window 
+     * inside the run backwards until one has more than cutoff hets per 
+     * hom, and the start is then the last het in that window. Returns -1
+     * if no such window is found before the start of the chromosome.
+     */
+    public int refineStart(int first, int window, double cutoff){
+        for (int k = Math.min(first + window, size() - window - 1); k >= 0; k--){
+            if (isHeterozygous(k, k + window, cutoff)){
+                return previousHet[k + window - 1];
+            }
+        }
+        return -1;
+    }
+
+    /* as refineStart for the end of a run, trying windows of window + 1
+     * called SNPs forward from one window inside the run, and returning 
+     * the first het in the window or -1 if the end of the chromosome is 
+     * reached
+     */
+    public int refineEnd(int last, int window, double cutoff){
+        int m = size();
+        for (int k = Math.max(last - window, 0); k < m; k++){
+            if (isHeterozygous(k, Math.min(k + window + 1, m), cutoff)){
+                return nextHet[k];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The cached chromosome images of a sample, kept in <sample>/images with a
+ * manifest recording what each image was drawn from - chromosome, quality
+ * filter, size, colour scheme and the version (size and modification time)
+ * of the chromosome file. An image is only used if all of these match the
+ * current view, so changing the colours or rewriting a chromosome file
+ * simply stops old images being used and they are replaced as new ones are
+ * written, without clearing anything else.
+ *
+ * Images are matched on width but not height - every row of a chromosome
+ * image is the same, so an image scales to any height without blurring.
+ * A few widths are kept for each chromosome and filter so that resizing
+ * the window back and forth doesn't redraw everything.
+ *
+ * Images cached by earlier versions (<sample>/<chrom>.png and
+ * <sample>/<filter>/<chrom>.png) are removed when a sample's cache is 
+ * first created.
+ *
+ * @author david
+ */
+public class ImageCache {
+    static final String DIRECTORY = "images";
+    private static final String MANIFEST_HEADER = "#SnpViewer image cache 1";
+    //no. of widths kept for each chromosome and quality filter
+    static final int MAX_WIDTHS = 4;
+
+    //one instance per folder so that the manifest is only written by one
+    private static final ConcurrentHashMap<String, ImageCache> INSTANCES = 
+            new ConcurrentHashMap<>();
+
+    private final File directory;
+    //image file names to what they were drawn from
+    private final CacheManifest<Key> manifest;
+
+    private ImageCache(File sampleDir){
+        directory = new File(sampleDir.getAbsoluteFile(), DIRECTORY);
+        if (!directory.exists()){
+            removeLegacyImages(sampleDir.getAbsoluteFile());
+        }
+        manifest = new CacheManifest<>(directory, MANIFEST_HEADER, MAX_WIDTHS,
+                Key::parse);
+    }
+
+    public static ImageCache forSample(SnpFile s){
+        File dir = new File(s.getOutputDirectoryName());
+        return INSTANCES.computeIfAbsent(dir.getAbsolutePath(), 
+                k -> new ImageCache(dir));
+    }
+
+    public File getDirectory(){
+        return directory;
+    }
+
+    /* describes the image of chrom for s drawn w x h with quality filter
+     * and these (ARGB) colours
+     */
+    public static Key key(SnpFile s, String chrom, Double filter, int w, int h, 
+            int aa, int bb, int ab, ColumnColorRule rule){
+        String scheme = Integer.toHexString(aa) + "-" + Integer.toHexString(bb)
+                + "-" + Integer.toHexString(ab) + "-" + rule.name();
+        return new Key(chrom, tierName(filter), w, h, scheme, 
+                fileVersion(s.getChromFiles().get(chrom)));
+    }
+
+    static String tierName(Double filter){
+        return filter == null ? "all" : "q" + filter;
+    }
+
+    /* size and modification time of a chromosome file (null for none) */
+    static String fileVersion(File chromFile){
+        return chromFile == null ? "none" : 
+                chromFile.length() + "-" + chromFile.lastModified();
+    }
+
+    /* the cached image matching key, or null if there isn't one */
+    public File find(Key key){
+        String name = manifest.find(k -> k.matches(key));
+        if (name == null){
+            return null;
+        }
+        File f = new File(directory, name);
+        return f.exists() ? f : null;
+    }
+
+    /* write raster as the image for key, replacing any images of the same 
+     * chromosome and filter that are out of date or the same width
+     */
+    public void put(Key key, ChromosomeRaster raster) throws IOException{
+        String name = fileName(key);
+        //encoded outside the lock - the same key always gives the same file
+        ImageCacheWriter.writePng(raster, new File(directory, name));
+        manifest.put(name, key);
+    }
+
+    static String fileName(Key key){
+        return "chr" + key.chromosome + "_" + key.tier + "_" + key.width + "_" 
+                + Integer.toHexString((key.scheme + "|" + key.version).hashCode()) 
+                + ".png";
+    }
+
+    /* images written by earlier versions straight into the sample folder or
+     * a subfolder named for the quality filter (or 'zoom')
+     */
+    static void removeLegacyImages(File sampleDir){
+        File[] files = sampleDir.listFiles();
+        if (files == null){
+            return;
+        }
+        for (File f: files){
+            if (f.isFile() && f.getName().endsWith(".png")){
+                f.delete();
+            }else if (f.isDirectory() && (f.getName().matches("\\d+") 
+                    || f.getName().equals("zoom"))){
+                File[] images = f.listFiles();
+                if (images != null){
+                    for (File i: images){
+                        if (i.getName().endsWith(".png")){
+                            i.delete();
+                        }
+                    }
+                }
+                f.delete();//only if now empty
+            }
+        }
+    }
+
+    public static class Key implements CacheManifest.Key<Key>{
+        final String chromosome;
+        final String tier;//quality filter
+        final int width;
+        final int height;
+        final String scheme;//colours and column colour rule
+        final String version;//of the chromosome file
+
+        Key(String chrom, String t, int w, int h, String s, String v){
+            chromosome = chrom;
+            tier = t;
+            width = w;
+            height = h;
+            scheme = s;
+            version = v;
+        }
+
+        //null if fields are not from toFields
+        static Key parse(String[] fields){
+            if (fields.length != 6){
+                return null;
+            }
+            return new Key(fields[0], fields[1], Integer.parseInt(fields[2]),
+                    Integer.parseInt(fields[3]), fields[4], fields[5]);
+        }
+
+        @Override
+        public String[] toFields(){
+            return new String[]{chromosome, tier, Integer.toString(width), 
+                    Integer.toString(height), scheme, version};
+        }
+
+        @Override
+        public String getChromosome(){
+            return chromosome;
+        }
+
+        @Override
+        public String getTier(){
+            return tier;
+        }
+
+        /* an image of a different width is kept unless out of date */
+        @Override
+        public boolean isReplacedBy(Key k){
+            return !scheme.equals(k.scheme) || !version.equals(k.version) 
+                    || width == k.width;
+        }
+
+        /* true if an image drawn for this key can be shown for k */
+        boolean matches(Key k){
+            return chromosome.equals(k.chromosome) && tier.equals(k.tier) 
+                    && width == k.width && scheme.equals(k.scheme) 
+                    && version.equals(k.version);
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (!(o instanceof Key)){
+                return false;
+            }
+            Key k = (Key) o;
+            return matches(k) && height == k.height;
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(chromosome, tier, width, height, scheme, version);
+        }
+    }
+}
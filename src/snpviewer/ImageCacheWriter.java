@@ -0,0 +1,84 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.io.File;
+import java.io.IOException;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+import javax.imageio.ImageIO;
+
+/**
+ * Writes a drawn chromosome to a sample's ImageCache in the background. The
+ * PNG is encoded straight from the ChromosomeRaster's pixels into a 
+ * temporary file beside the cached image, which is then renamed over it,
+ * so a cached image is never seen half written and there is no copy from
+ * elsewhere on disk. The view shows its own image made from the same 
+ * raster, so nothing is read back.
+ *
+ * @author david
+ */
+public class ImageCacheWriter extends Service<Void> {
+    private final ImageCache cache;
+    private final ImageCache.Key key;
+    private final ChromosomeRaster raster;
+
+    ImageCacheWriter(ImageCache c, ImageCache.Key k, ChromosomeRaster r){
+        cache = c;
+        key = k;
+        raster = r;
+    }
+
+    public ImageCache.Key getKey(){
+        return key;
+    }
+
+    @Override
+    protected Task<Void> createTask(){
+        return new Task<Void>(){
+            @Override
+            protected Void call() throws Exception{
+                cache.put(key, raster);
+                return null;
+            }
+        };
+    }
+
+    /* encode raster as a PNG and move it into place - can be called from 
+     * any thread
+     */
+    static void writePng(ChromosomeRaster raster, File file) throws IOException{
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Unable to make directory " + dir.getPath());
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try{
+            if (!ImageIO.write(raster.toBufferedImage(), "png", temp)){
+                throw new IOException("No PNG writer available");
+            }
+            AtomicFiles.replace(temp, file);
+        }finally{
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A set of regions on one chromosome held as sorted, non-overlapping 
+ * intervals, with the SNP IDs at the ends of each. Intersection, 
+ * subtraction, union and joining intervals separated by small gaps each 
+ * take one pass over both sets, and every operation returns a new set so
+ * a set can be shared freely once made.
+ *
+ * Intervals are closed - start and end are the positions of the first and
+ * last SNPs - so intervals that share an end position overlap. As in 
+ * RegionFinder's original region comparisons, subtracting an interval 
+ * leaves the SNPs at its ends in what remains, the remaining pieces 
+ * starting or ending where the subtracted interval ends or starts (so 
+ * subtracting a single position changes nothing).
+ *
+ * @author david
+ */
+public class IntervalSet {
+    private final String chromosome;
+    private int[] starts;
+    private int[] ends;
+    private String[] startIds;
+    private String[] endIds;
+    private int size = 0;
+
+    IntervalSet(String chrom){
+        this(chrom, 8);
+    }
+
+    private IntervalSet(String chrom, int capacity){
+        chromosome = chrom;
+        capacity = Math.max(capacity, 1);
+        starts = new int[capacity];
+        ends = new int[capacity];
+        startIds = new String[capacity];
+        endIds = new String[capacity];
+    }
+
+    /* the union of regions, which need not be sorted but must all be on
+     * chromosome chrom
+     */
+    public static IntervalSet of(String chrom, Collection<RegionSummary> regions){
+        RegionSummary[] sorted = regions.toArray(new RegionSummary[regions.size()]);
+        Arrays.sort(sorted, (r1, r2) -> r1.getStartPos() != r2.getStartPos() ?
+                Integer.compare(r1.getStartPos(), r2.getStartPos()) :
+                Integer.compare(r1.getEndPos(), r2.getEndPos()));
+        IntervalSet set = new IntervalSet(chrom, sorted.length);
+        for (RegionSummary r: sorted){
+            set.append(r.getStartPos(), r.getEndPos(), r.getStartId(), 
+                    r.getEndId(), 0);
+        }
+        return set;
+    }
+
+    public String getChromosome(){
+        return chromosome;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public int getStart(int i){
+        return starts[i];
+    }
+
+    public int getEnd(int i){
+        return ends[i];
+    }
+
+    /* new RegionSummaries for the intervals, in order, with indices of 0 */
+    public ArrayList<RegionSummary> toRegions(){
+        ArrayList<RegionSummary> regions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++){
+            regions.add(new RegionSummary(chromosome, starts[i], ends[i], 0, 0,
+                    startIds[i], endIds[i]));
+        }
+        return regions;
+    }
+
+    /* regions covered by both sets. Where both intervals start (or end) at
+     * the same position the IDs are taken from this set.
+     */
+    public IntervalSet intersect(IntervalSet other){
+        IntervalSet result = new IntervalSet(chromosome, Math.min(size, other.size));
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size){
+            if (starts[i] <= other.ends[j] && other.starts[j] <= ends[i]){
+                boolean thisStart = starts[i] >= other.starts[j];
+                boolean thisEnd = ends[i] <= other.ends[j];
+                result.append(thisStart ? starts[i] : other.starts[j],
+                        thisEnd ? ends[i] : other.ends[j],
+                        thisStart ? startIds[i] : other.startIds[j],
+                        thisEnd ? endIds[i] : other.endIds[j], 0);
+            }
+            //whichever ends first can't overlap anything further on
+            if (ends[i] < other.ends[j]){
+                i++;
+            }else{
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /* regions of this set not covered by other */
+    public IntervalSet subtract(IntervalSet other){
+        IntervalSet result = new IntervalSet(chromosome, size);
+        int j = 0;
+        for (int i = 0; i < size; i++){
+            //other's intervals ending before this one can't reach later ones
+            while (j < other.size && other.ends[j] < starts[i]){
+                j++;
+            }
+            int start = starts[i];
+            String startId = startIds[i];
+            boolean remaining = true;
+            for (int k = j; k < other.size && other.starts[k] <= ends[i]; k++){
+                if (other.starts[k] > start){
+                    result.append(start, other.starts[k], startId, 
+                            other.startIds[k], 0);
+                }
+                if (other.ends[k] >= ends[i]){
+                    remaining = false;
+                    break;
+                }
+                if (other.ends[k] > start){
+                    start = other.ends[k];
+                    startId = other.endIds[k];
+                }
+            }
+            if (remaining){
+                result.append(start, ends[i], startId, endIds[i], 0);
+            }
+        }
+        return result;
+    }
+
+    /* regions covered by either set */
+    public IntervalSet union(IntervalSet other){
+        IntervalSet result = new IntervalSet(chromosome, size + other.size);
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size){
+            if (j >= other.size || (i < size && starts[i] <= other.starts[j])){
+                result.append(starts[i], ends[i], startIds[i], endIds[i], 0);
+                i++;
+            }else{
+                result.append(other.starts[j], other.ends[j], other.startIds[j],
+                        other.endIds[j], 0);
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /* join intervals separated by no more than maxGap bp */
+    public IntervalSet joinGaps(int maxGap){
+        IntervalSet result = new IntervalSet(chromosome, size);
+        for (int i = 0; i < size; i++){
+            result.append(starts[i], ends[i], startIds[i], endIds[i], maxGap);
+        }
+        return result;
+    }
+
+    /* add an interval starting at or after the last one, extending the last
+     * interval instead if the new one starts no more than maxGap after it
+     */
+    private void append(int start, int end, String startId, String endId, 
+            int maxGap){
+        if (size > 0 && (long) start - ends[size - 1] <= maxGap){
+            if (end > ends[size - 1]){
+                ends[size - 1] = end;
+                endIds[size - 1] = endId;
+            }
+            return;
+        }
+        add(start, end, startId, endId);
+    }
+
+    private void add(int start, int end, String startId, String endId){
+        if (size == starts.length){
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            startIds = Arrays.copyOf(startIds, capacity);
+            endIds = Arrays.copyOf(endIds, capacity);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        startIds[size] = startId;
+        endIds[size] = endId;
+        size++;
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The markers (positions and IDs) of each chromosome, shared by all the
+ * samples of a project. Samples run on the same array have the same
+ * markers, so rather than every chrN.snpview file holding its own copy
+ * they are kept once in the project's "markers" folder and the samples'
+ * files hold only genotypes and confidences aligned to the catalog (see
+ * ChromosomeStore). Samples read from the same catalog file share one
+ * copy of its markers in memory and can be compared index by index.
+ *
+ * Catalog files are never changed once written. If a sample has markers
+ * that the latest catalog for its chromosome lacks (e.g. it was run on a
+ * different array) a new generation holding both sets of markers is
+ * written, and samples already written stay aligned to the generation
+ * they were written against. A sample with a different ID from the
+ * catalog at the same position keeps its own positions and IDs.
+ *
+ * @author david
+ */
+public class MarkerCatalog {
+    static final String DIRECTORY = "markers";
+    static final String SUFFIX = ".markers";
+    //"SNPM"
+    static final int MAGIC = 0x534E504D;
+    static final short VERSION = 1;
+    //no. of catalog files kept in memory
+    private static final int MAX_LOADED = 64;
+
+    //catalog file paths to locks, so that one thread at a time adds generations
+    private static final ConcurrentHashMap<String, Object> LOCKS = 
+            new ConcurrentHashMap<>();
+    /*catalog files (path, size and modification time, so a catalog that
+     * is deleted and written again isn't served from memory) to markers - 
+     * only one copy of each is kept
+     */
+    private static final LinkedHashMap<String, Markers> LOADED = 
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private final File directory;
+
+    MarkerCatalog(File dir){
+        directory = dir.getAbsoluteFile();
+    }
+
+    /* the catalog of the project a chromosome file belongs to - each sample
+     * has a folder in the project's folder
+     */
+    public static MarkerCatalog forChromFile(File chromFile){
+        File sampleDir = chromFile.getAbsoluteFile().getParentFile();
+        File projectDir = sampleDir.getParentFile();
+        return new MarkerCatalog(new File(projectDir != null ? projectDir : 
+                sampleDir, DIRECTORY));
+    }
+
+    public File getDirectory(){
+        return directory;
+    }
+
+    File getFile(String chrom, int generation){
+        return new File(directory, "chr" + chrom + "." + generation + SUFFIX);
+    }
+
+    /* highest generation written for chrom, or -1 if there is none */
+    int latestGeneration(String chrom){
+        String prefix = "chr" + chrom + ".";
+        int latest = -1;
+        File[] files = directory.listFiles();
+        if (files == null){
+            return latest;
+        }
+        for (File f: files){
+            String name = f.getName();
+            if (name.startsWith(prefix) && name.endsWith(SUFFIX)){
+                try{
+                    latest = Math.max(latest, Integer.parseInt(name.substring(
+                            prefix.length(), name.length() - SUFFIX.length())));
+                }catch (NumberFormatException ex){
+                    //a different chromosome whose name starts the same way
+                }
+            }
+        }
+        return latest;
+    }
+
+    public Markers getMarkers(String chrom, int generation) throws IOException{
+        File file = getFile(chrom, generation);
+        if (!file.isFile()){
+            /*every sample file in a project is read against the project's
+             * catalog, so a sample folder copied without it can't be read
+             */
+            throw new FileNotFoundException("Marker catalog file " 
+                    + file.getPath() + " is missing - sample folders need the "
+                    + "\"" + DIRECTORY + "\" folder of the project they were "
+                    + "created in");
+        }
+        String key = loadedKey(file);
+        synchronized(LOADED){
+            Markers loaded = LOADED.get(key);
+            if (loaded != null){
+                return loaded;
+            }
+        }
+        Markers markers = Markers.read(file, generation);
+        if (!markers.chromosome.equals(chrom)){
+            throw new IOException(file.getName() + " is for chromosome " 
+                    + markers.chromosome + ", not " + chrom);
+        }
+        return keep(key, markers, false);
+    }
+
+    private static String loadedKey(File file){
+        return file.getAbsolutePath() + "|" + file.length() + "|" 
+                + file.lastModified();
+    }
+
+    /* returns the copy already loaded if another thread beat us to it,
+     * unless replace is true (markers have just been written to the file)
+     */
+    private static Markers keep(String key, Markers markers, boolean replace){
+        synchronized(LOADED){
+            Markers loaded = LOADED.get(key);
+            if (loaded != null && !replace){
+                return loaded;
+            }
+            LOADED.put(key, markers);
+            Iterator<String> it = LOADED.keySet().iterator();
+            while (LOADED.size() > MAX_LOADED && it.hasNext()){
+                it.next();
+                it.remove();
+            }
+            return markers;
+        }
+    }
+
+    /* catalog markers including every SNP in store, writing a new
+     * generation if the latest doesn't have them all. Returns null if
+     * store's IDs don't match the catalog's.
+     */
+    public Markers register(ChromosomeStore store) throws IOException{
+        String chrom = store.getChromosome();
+        Object lock = LOCKS.computeIfAbsent(getFile(chrom, 0).getPath(), 
+                k -> new Object());
+        synchronized(lock){
+            int latest = latestGeneration(chrom);
+            Markers markers;
+            if (latest < 0){
+                if (!directory.isDirectory() && !directory.mkdirs()){
+                    throw new IOException("Could not create marker catalog "
+                            + "folder " + directory.getPath());
+                }
+                markers = new Markers(chrom, 0, store.positions, store.ids,
+                        store.otherIds);
+            }else{
+                Markers current = getMarkers(chrom, latest);
+                if (current.align(store) != null){
+                    return current;
+                }
+                markers = current.merge(store, latest + 1);
+                if (markers == null){
+                    return null;
+                }
+            }
+            File file = getFile(chrom, markers.generation);
+            File temp = new File(file.getPath() + ".tmp");
+            markers.write(temp);
+            AtomicFiles.replace(temp, file);
+            return keep(loadedKey(file), markers, true);
+        }
+    }
+
+    /* write store to chromFile aligned to the catalog of chromFile's
+     * project, or with its own markers if it can't be aligned
+     */
+    static void writeChromosome(File chromFile, ChromosomeStore store) 
+            throws IOException{
+        if (store.size() > 0){
+            MarkerCatalog catalog = forChromFile(chromFile);
+            try{
+                Markers markers = catalog.register(store);
+                int[] index = markers == null ? null : markers.align(store);
+                if (index != null){
+                    store.writeAligned(chromFile, markers, index);
+                    return;
+                }
+            }catch (IOException ex){
+                //e.g. the project folder can't be written to
+                Logger.getLogger(MarkerCatalog.class.getName()).log(Level.WARNING,
+                        "Could not update marker catalog " + catalog.getDirectory(),
+                        ex);
+            }
+        }
+        store.write(chromFile);
+    }
+
+    /* one generation of the markers for a chromosome, with IDs coded as in
+     * ChromosomeStore. Never modified once created.
+     */
+    public static class Markers{
+        final String chromosome;
+        final int generation;
+        final int[] positions;
+        final int[] ids;
+        final String[] otherIds;
+
+        Markers(String chrom, int gen, int[] pos, int[] snpIds, String[] others){
+            chromosome = chrom;
+            generation = gen;
+            positions = pos;
+            ids = snpIds;
+            otherIds = others;
+        }
+
+        public int size(){
+            return positions.length;
+        }
+
+        public int getGeneration(){
+            return generation;
+        }
+
+        public int getPosition(int i){
+            return positions[i];
+        }
+
+        public String getId(int i){
+            int id = ids[i];
+            if (id > 0){
+                return "rs" + id;
+            }else if (id == 0){
+                return ChromosomeStore.NO_ID;
+            }
+            return otherIds[-id - 1];
+        }
+
+        private boolean sameId(int c, ChromosomeStore store, int i){
+            int a = ids[c];
+            int b = store.ids[i];
+            if (a >= 0 || b >= 0){
+                return a == b;
+            }
+            return otherIds[-a - 1].equals(store.otherIds[-b - 1]);
+        }
+
+        /* catalog index of each SNP in store, or null if any of its markers
+         * are missing or have different IDs
+         */
+        int[] align(ChromosomeStore store){
+            int[] index = new int[store.size()];
+            int c = 0;
+            for (int i = 0; i < store.size(); i++){
+                int p = store.getPosition(i);
+                while (c < positions.length && positions[c] < p){
+                    c++;
+                }
+                if (c == positions.length || positions[c] != p 
+                        || !sameId(c, store, i)){
+                    return null;
+                }
+                index[i] = c++;
+            }
+            return index;
+        }
+
+        /* these markers plus any in store they lack, or null if store has
+         * a different ID at any position
+         */
+        Markers merge(ChromosomeStore store, int gen){
+            int[] pos = new int[positions.length + store.size()];
+            int[] snpIds = new int[pos.length];
+            ArrayList<String> others = new ArrayList<>(Arrays.asList(otherIds));
+            HashMap<String, Integer> otherIndices = new HashMap<>();
+            for (int i = 0; i < otherIds.length; i++){
+                otherIndices.put(otherIds[i], i);
+            }
+            int n = 0;
+            int c = 0;
+            int i = 0;
+            while (c < positions.length || i < store.size()){
+                if (i == store.size() || (c < positions.length 
+                        && positions[c] < store.getPosition(i))){
+                    pos[n] = positions[c];
+                    snpIds[n] = ids[c++];
+                }else if (c == positions.length 
+                        || store.getPosition(i) < positions[c]){
+                    pos[n] = store.getPosition(i);
+                    int id = store.ids[i];
+                    if (id < 0){
+                        String other = store.otherIds[-id - 1];
+                        Integer o = otherIndices.get(other);
+                        if (o == null){
+                            o = others.size();
+                            others.add(other);
+                            otherIndices.put(other, o);
+                        }
+                        id = -(o + 1);
+                    }
+                    snpIds[n] = id;
+                    i++;
+                }else{
+                    if (!sameId(c, store, i)){
+                        return null;
+                    }
+                    pos[n] = positions[c];
+                    snpIds[n] = ids[c++];
+                    i++;
+                }
+                n++;
+            }
+            return new Markers(chromosome, gen, Arrays.copyOf(pos, n), 
+                    Arrays.copyOf(snpIds, n), 
+                    others.toArray(new String[others.size()]));
+        }
+
+        void write(File file) throws IOException{
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)))){
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                ChromosomeStore.writeString(out, chromosome);
+                out.writeInt(positions.length);
+                out.writeInt(otherIds.length);
+                for (int p: positions){
+                    out.writeInt(p);
+                }
+                for (int id: ids){
+                    out.writeInt(id);
+                }
+                ChromosomeStore.writeOtherIds(out, otherIds);
+            }
+        }
+
+        static Markers read(File file, int generation) throws IOException{
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            try{
+                if (buf.getInt() != MAGIC){
+                    throw new IOException(file.getName() 
+                            + " is not a marker catalog file");
+                }
+                short version = buf.getShort();
+                if (version < 1 || version > VERSION){
+                    throw new IOException("Unsupported marker catalog version ("
+                            + version + ") for " + file.getName());
+                }
+                String chrom = ChromosomeStore.readString(buf);
+                int n = buf.getInt();
+                int otherIdCount = buf.getInt();
+                int[] pos = new int[n];
+                buf.asIntBuffer().get(pos);
+                buf.position(buf.position() + 4 * n);
+                int[] snpIds = new int[n];
+                buf.asIntBuffer().get(snpIds);
+                buf.position(buf.position() + 4 * n);
+                String[] others = ChromosomeStore.readOtherIds(buf, otherIdCount);
+                return new Markers(chrom, generation, pos, snpIds, others);
+            }catch (BufferUnderflowException | IndexOutOfBoundsException ex){
+                throw new IOException(file.getName() + " is truncated", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package snpviewer;
+
+/**
+ * Genotype calls packed two bits per SNP, 32 to a long. Codes are the
+ * indices of ChromosomeStore.STANDARD_CALLS (NoCall, AA, BB, AB). Counts of
+ * a genotype over a range are done a word at a time with Long.bitCount
+ * rather than SNP by SNP.
+ *
+ * @author david
+ */
+public class PackedGenotypes {
+    public static final int NO_CALL = 0;
+    public static final int AA = 1;
+    public static final int BB = 2;
+    public static final int AB = 3;
+    static final int PER_WORD = 32;
+    //low bit of every two bit slot
+    private static final long LOW_BITS = 0x5555555555555555L;
+
+    private final long[] words;
+    private final int size;
+
+    PackedGenotypes(int n){
+        this(new long[wordsFor(n)], n);
+    }
+
+    PackedGenotypes(long[] packedWords, int n){
+        if (packedWords.length < wordsFor(n)){
+            throw new IllegalArgumentException("Not enough words for " + n
+                    + " genotypes");
+        }
+        words = packedWords;
+        size = n;
+    }
+
+    static int wordsFor(int n){
+        return (n + PER_WORD - 1) / PER_WORD;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public int get(int i){
+        return (int) (words[i >>> 5] >>> ((i & 31) << 1)) & 3;
+    }
+
+    public void set(int i, int code){
+        int shift = (i & 31) << 1;
+        words[i >>> 5] = (words[i >>> 5] & ~(3L << shift))
+                | ((long) (code & 3) << shift);
+    }
+
+    /* the packed words - for writing to disk, not to be modified */
+    long[] getWords(){
+        return words;
+    }
+
+    /* genotypes from (inclusive) to to (exclusive) that are code */
+    public int count(int code, int from, int to){
+        if (from < 0 || to > size || from > to){
+            throw new IndexOutOfBoundsException("Range " + from + "-" + to
+                    + " for " + size + " genotypes");
+        }
+        if (from == to){
+            return 0;
+        }
+        long pattern = LOW_BITS * (code & 3);
+        int firstWord = from >>> 5;
+        int lastWord = (to - 1) >>> 5;
+        int count = 0;
+        for (int w = firstWord; w <= lastWord; w++){
+            //a slot is 00 after the xor only if it matched code
+            long x = words[w] ^ pattern;
+            long matches = ~(x | (x >>> 1)) & LOW_BITS;
+            if (w == firstWord){
+                matches &= -1L << ((from & 31) << 1);
+            }
+            if (w == lastWord && (to & 31) != 0){
+                matches &= (1L << ((to & 31) << 1)) - 1;
+            }
+            count += Long.bitCount(matches);
+        }
+        return count;
+    }
+
+    public int count(int code){
+        return count(code, 0, size);
+    }
+
+    /* genotypes from (inclusive) to to (exclusive) that are not NoCall */
+    public int countCalled(int from, int to){
+        return (to - from) - count(NO_CALL, from, to);
+    }
+
+    public long estimateBytes(){
+        return 16 + 8L * words.length;
+    }
+}
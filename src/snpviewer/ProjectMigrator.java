@@ -0,0 +1,355 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package snpviewer;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javafx.concurrent.Service;
+import javafx.concurrent.Task;
+
+/**
+ * Converts chrN.snpview files written by earlier releases as serialized 
+ * SnpLine lists into the columnar ChromosomeStore format, with markers in the project's MarkerCatalog. Files can come
+ * from the samples of the open project and/or from any number of project
+ * folders, which are searched for .snpview files. Files are converted in parallel by a small
+ * fixed number of threads to limit the amount of disk I/O at once.
+ *
+ * Each file is written to chrN.snpview.migrating beside the original and 
+ * read back to check that every SNP's position, call, ID and confidence 
+ * (to float precision) matches the original. Only then is the original 
+ * renamed to chrN.snpview.bak and the new file moved into its place, so 
+ * the original data are never lost and a project can be returned to an 
+ * earlier version of SnpViewer by restoring the .bak files. Files already
+ * in the current format are skipped, so if the migration is interrupted 
+ * it can simply be run again.
+ *
+ * @author david
+ */
+public class ProjectMigrator extends Service<Integer> {
+    static final String TEMP_SUFFIX = ".migrating";
+    static final String SNPVIEW_SUFFIX = ".snpview";
+    static final String BACKUP_SUFFIX = ".bak";
+    //no. of files to convert at once (-Dsnpviewer.migrationThreads=N)
+    static final int DEFAULT_THREADS = Integer.getInteger(
+            "snpviewer.migrationThreads", 2);
+
+    //absolute paths of files being converted by any migrator
+    private static final Set<String> IN_PROGRESS = ConcurrentHashMap.newKeySet();
+
+    private final List<SnpFile> samples = new ArrayList<>();
+    private final List<File> directories = new ArrayList<>();
+    private int threads = DEFAULT_THREADS;
+    private final List<String> failures = new ArrayList<>();
+
+    ProjectMigrator(){
+    }
+
+    /* convert the chromosome files of these samples - converted files
+     * keep their names so the samples' chromFiles don't change
+     */
+    public void addSamples(List<SnpFile> snpFiles){
+        samples.addAll(snpFiles);
+    }
+
+    /* convert every .snpview file in or below dir */
+    public void addDirectory(File dir){
+        directories.add(dir);
+    }
+
+    public void setThreads(int n){
+        threads = Math.max(1, n);
+    }
+
+    /* descriptions of files that could not be converted by the last run */
+    public synchronized List<String> getFailures(){
+        return new ArrayList<>(failures);
+    }
+
+    private synchronized void addFailure(String failure){
+        failures.add(failure);
+    }
+
+    @Override
+    protected Task<Integer> createTask(){
+        final List<SnpFile> sampleList = new ArrayList<>(samples);
+        final List<File> dirList = new ArrayList<>(directories);
+        synchronized(this){
+            failures.clear();
+        }
+        return new Task<Integer>(){
+            @Override
+            protected Integer call() throws Exception{
+                updateMessage("Finding .snpview files...");
+                //file path to job - a file is only converted once
+                LinkedHashMap<String, Migrated> jobs = new LinkedHashMap<>();
+                for (File f: getSampleFiles(sampleList)){
+                    jobs.put(f.getAbsolutePath(), new Migrated(f));
+                }
+                for (File dir: dirList){
+                    for (File f: findSnpViewFiles(dir)){
+                        if (!jobs.containsKey(f.getAbsolutePath())){
+                            jobs.put(f.getAbsolutePath(), new Migrated(f));
+                        }
+                    }
+                }
+                int total = jobs.size();
+                int converted = 0;
+                if (total == 0){
+                    updateMessage("No files to convert");
+                    return converted;
+                }
+                ExecutorService executor = Executors.newFixedThreadPool(
+                        Math.min(threads, total), r -> {
+                            Thread t = new Thread(r, "snpview-migrator");
+                            t.setDaemon(true);
+                            return t;
+                        });
+                try{
+                    ExecutorCompletionService<Migrated> completion =
+                            new ExecutorCompletionService<>(executor);
+                    for (final Migrated job: jobs.values()){
+                        completion.submit(() -> {
+                            try{
+                                job.converted = migrateFile(job.file);
+                            }catch (IOException ex){
+                                throw new IOException(job.file.getPath() + ": "
+                                        + ex.getLocalizedMessage(), ex);
+                            }
+                            return job;
+                        });
+                    }
+                    updateMessage("Converting " + total + " files...");
+                    for (int i = 0; i < total; i++){
+                        if (isCancelled()){
+                            updateMessage("Cancelled");
+                            return converted;
+                        }
+                        try{
+                            Migrated done = completion.take().get();
+                            if (done.converted){
+                                converted++;
+                            }
+                        }catch (ExecutionException ex){
+                            Logger.getLogger(ProjectMigrator.class.getName()).log(
+                                    Level.SEVERE, null, ex.getCause());
+                            addFailure(ex.getCause().getLocalizedMessage());
+                        }
+                        updateProgress(i + 1, total);
+                    }
+                }finally{
+                    executor.shutdownNow();
+                }
+                updateMessage("Converted " + converted + " of " + total + " files");
+                return converted;
+            }
+        };
+    }
+
+    private static List<File> getSampleFiles(List<SnpFile> snpFiles){
+        ArrayList<File> files = new ArrayList<>();
+        for (SnpFile s: snpFiles){
+            files.addAll(s.getChromFiles().values());
+        }
+        return files;
+    }
+
+    /* no. of chromosome files of these samples not in the current format. 
+     * Files that can't be read are not counted - converting them would 
+     * fail anyway.
+     */
+    static int countFilesToConvert(List<SnpFile> snpFiles){
+        int count = 0;
+        for (File f: getSampleFiles(snpFiles)){
+            try{
+                if (f.exists() && !ChromosomeStore.isCurrentVersion(f)){
+                    count++;
+                }
+            }catch (IOException ex){
+                Logger.getLogger(ProjectMigrator.class.getName()).log(
+                        Level.WARNING, "Could not check " + f.getPath(), ex);
+            }
+        }
+        return count;
+    }
+
+    /* returns true if file was converted, false if it was already in the
+     * current format or is being converted by another thread
+     */
+    static boolean migrateFile(File file) throws IOException{
+        //another migrator (e.g. the one started on loading a project) has it
+        if (!IN_PROGRESS.add(file.getAbsolutePath())){
+            return false;
+        }
+        try{
+            return convert(file);
+        }finally{
+            IN_PROGRESS.remove(file.getAbsolutePath());
+        }
+    }
+
+    private static boolean convert(File file) throws IOException{
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        if (ChromosomeStore.isCurrentVersion(file)){
+            //may be left over if interrupted after the move
+            temp.delete();
+            return false;
+        }
+        ChromosomeStore original;
+        ArrayList<SnpFile.SnpLine> legacyLines;
+        try (BufferedInputStream in = new BufferedInputStream(
+                new FileInputStream(file))){
+            if (ChromosomeStore.startsWithMagic(in)){
+                //columnar, but not a version this release can read
+                throw new IOException("Unsupported .snpview version for " 
+                        + file.getPath());
+            }
+            legacyLines = SnpFile.readLegacyChromFile(in);
+            String chrom = legacyLines.isEmpty() ? chromFromFileName(file) 
+                    : legacyLines.get(0).getChromosome();
+            original = ChromosomeStore.fromSnpLines(chrom, legacyLines);
+        }catch (ClassNotFoundException ex){
+            throw new IOException("Could not read " + file.getPath(), ex);
+        }
+        //any stale temp file from an interrupted run is simply overwritten
+        MarkerCatalog.writeChromosome(temp, original);
+        String mismatch = compare(legacyLines, ChromosomeStore.read(temp));
+        if (mismatch != null){
+            temp.delete();
+            throw new IOException("Verification failed converting "
+                    + file.getPath() + " - " + mismatch);
+        }
+        File backup = getBackupFile(file);
+        Files.move(file.toPath(), backup.toPath());
+        try{
+            AtomicFiles.replace(temp, file);
+        }catch (IOException ex){
+            //put the original back rather than leave the sample without it
+            AtomicFiles.replace(backup, file);
+            throw ex;
+        }
+        return true;
+    }
+
+    /* chrN.snpview.bak, or chrN.snpview.bakN if that is already taken */
+    static File getBackupFile(File file){
+        File backup = new File(file.getPath() + BACKUP_SUFFIX);
+        for (int i = 2; backup.exists(); i++){
+            backup = new File(file.getPath() + BACKUP_SUFFIX + i);
+        }
+        return backup;
+    }
+
+    /* null if converted holds exactly the SNPs of original, otherwise a 
+     * description of the first difference
+     */
+    static String compare(List<SnpFile.SnpLine> original, 
+            ChromosomeStore converted){
+        if (original.size() != converted.size()){
+            return "expected " + original.size() + " SNPs, found " 
+                    + converted.size();
+        }
+        for (int i = 0; i < original.size(); i++){
+            SnpFile.SnpLine snp = original.get(i);
+            String mismatch = compare(converted, i, snp.getPosition(), 
+                    snp.getId(), snp.getCall(), snp.getConfidence());
+            if (mismatch != null){
+                return mismatch;
+            }
+        }
+        return null;
+    }
+
+    /* confidences are stored as floats so only have to match to float 
+     * precision
+     */
+    private static String compare(ChromosomeStore converted, int i, int position,
+            String id, String call, Double confidence){
+        String found = null;
+        if (converted.getPosition(i) != position){
+            found = "position " + converted.getPosition(i);
+        }else if (!Objects.equals(converted.getId(i), id)){
+            found = "ID " + converted.getId(i);
+        }else if (!Objects.equals(converted.getCall(i), call)){
+            found = "call " + converted.getCall(i);
+        }else{
+            Double c = converted.getConfidence(i);
+            boolean missing = confidence == null || confidence.isNaN();
+            if (missing ? c != null : (c == null || Math.abs(c - confidence) 
+                    > Math.ulp(confidence.floatValue()))){
+                found = "confidence " + c;
+            }
+        }
+        if (found == null){
+            return null;
+        }
+        return "SNP " + (i + 1) + " (" + id + " at " + position + ") has " 
+                + found + " after conversion";
+    }
+
+    static String chromFromFileName(File file){
+        String name = file.getName();
+        if (name.startsWith("chr")){
+            name = name.substring(3);
+        }
+        return name.replaceFirst("\\" + SNPVIEW_SUFFIX + "$", "");
+    }
+
+    static List<File> findSnpViewFiles(File dir){
+        ArrayList<File> found = new ArrayList<>();
+        File[] contents = dir.listFiles();
+        if (contents == null){
+            return found;
+        }
+        for (File f: contents){
+            if (f.isDirectory()){
+                found.addAll(findSnpViewFiles(f));
+            }else if (f.getName().startsWith("chr") &&
+                    f.getName().endsWith(SNPVIEW_SUFFIX)){
+                found.add(f);
+            }
+        }
+        return found;
+    }
+
+    private static class Migrated{
+        final File file;
+        boolean converted = false;
+
+        Migrated(File f){
+            file = f;
+        }
+    }
+}
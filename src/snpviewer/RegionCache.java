@@ -0,0 +1,229 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package snpviewer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The homozygous regions RegionFinder has found in each chromosome of a 
+ * sample on its own, kept in <sample>/regions with a manifest recording 
+ * what each set of regions was found from - chromosome, quality filter, 
+ * the search parameters that affect single sample regions and the version
+ * (size and modification time) of the chromosome file. Regions are only
+ * used if all of these match, so a later search with the same settings 
+ * only has to scan samples or chromosomes it hasn't seen before and then
+ * compare the samples' regions, which is cheap.
+ *
+ * A few parameter sets are kept for each chromosome and filter. Entries 
+ * for an old version of a chromosome file are removed when regions for the
+ * new version are written.
+ *
+ * @author david
+ */
+public class RegionCache {
+    static final String DIRECTORY = "regions";
+    private static final String MANIFEST_HEADER = "#SnpViewer region cache 1";
+    //no. of parameter sets kept for each chromosome and quality filter
+    static final int MAX_PARAMETER_SETS = 4;
+
+    //one instance per folder so that the manifest is only written by one
+    private static final ConcurrentHashMap<String, RegionCache> INSTANCES = 
+            new ConcurrentHashMap<>();
+
+    private final File directory;
+    //region file names to what the regions were found from
+    private final CacheManifest<Key> manifest;
+
+    private RegionCache(File sampleDir){
+        directory = new File(sampleDir.getAbsoluteFile(), DIRECTORY);
+        manifest = new CacheManifest<>(directory, MANIFEST_HEADER, 
+                MAX_PARAMETER_SETS, Key::parse);
+    }
+
+    public static RegionCache forSample(SnpFile s){
+        File dir = new File(s.getOutputDirectoryName());
+        return INSTANCES.computeIfAbsent(dir.getAbsolutePath(), 
+                k -> new RegionCache(dir));
+    }
+
+    public File getDirectory(){
+        return directory;
+    }
+
+    /* describes the regions of chrom for s found with parameters (which 
+     * must include everything other than the genotypes that affects them),
+     * using the sample's current quality filter
+     */
+    public static Key key(SnpFile s, String chrom, String parameters){
+        return new Key(chrom, ImageCache.tierName(s.getQualityFilter()), 
+                parameters, ImageCache.fileVersion(s.getChromFiles().get(chrom)));
+    }
+
+    /* new copies of the regions cached for key, or null if there are none 
+     * or they can't be read
+     */
+    public ArrayList<RegionSummary> find(Key key){
+        String name = fileName(key);
+        if (!key.equals(manifest.get(name))){
+            return null;
+        }
+        File f = new File(directory, name);
+        try{
+            return readRegions(f);
+        }catch (IOException | RuntimeException ex){
+            Logger.getLogger(RegionCache.class.getName()).log(Level.WARNING, 
+                    "Could not read cached regions " + f, ex);
+            return null;
+        }
+    }
+
+    /* write regions for key, replacing any regions of the same chromosome
+     * and filter found from an out of date chromosome file
+     */
+    public void put(Key key, ArrayList<RegionSummary> regions) throws IOException{
+        String name = fileName(key);
+        //written outside the lock - the same key always gives the same file
+        writeRegions(regions, new File(directory, name));
+        manifest.put(name, key);
+    }
+
+    static String fileName(Key key){
+        return "chr" + key.chromosome + "_" + key.tier + "_" 
+                + Integer.toHexString((key.parameters + "|" + key.version).hashCode()) 
+                + ".roh";
+    }
+
+    /* one region per line - indices, positions and IDs of its ends */
+    static void writeRegions(ArrayList<RegionSummary> regions, File file) 
+            throws IOException{
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("Unable to make directory " + dir.getPath());
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try{
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(
+                    temp.toPath(), StandardCharsets.UTF_8))){
+                for (RegionSummary r: regions){
+                    writer.println(r.getStartIndex() + "\t" + r.getEndIndex() 
+                            + "\t" + r.getStartPos() + "\t" + r.getEndPos() 
+                            + "\t" + r.getStartId() + "\t" + r.getEndId());
+                }
+                if (writer.checkError()){
+                    throw new IOException("Error writing " + temp.getPath());
+                }
+            }
+            AtomicFiles.replace(temp, file);
+        }finally{
+            temp.delete();
+        }
+    }
+
+    static ArrayList<RegionSummary> readRegions(File file) throws IOException{
+        ArrayList<RegionSummary> regions = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), 
+                StandardCharsets.UTF_8)){
+            String line;
+            while ((line = reader.readLine()) != null){
+                String[] split = line.split("\t");
+                if (split.length != 6){
+                    throw new IOException("Malformed line in " + file.getPath()
+                            + ": " + line);
+                }
+                regions.add(new RegionSummary(Integer.parseInt(split[2]), 
+                        Integer.parseInt(split[3]), Integer.parseInt(split[0]), 
+                        Integer.parseInt(split[1]), split[4], split[5]));
+            }
+        }
+        return regions;
+    }
+
+    public static class Key implements CacheManifest.Key<Key>{
+        final String chromosome;
+        final String tier;//quality filter
+        final String parameters;//search parameters
+        final String version;//of the chromosome file
+
+        Key(String chrom, String t, String p, String v){
+            chromosome = chrom;
+            tier = t;
+            parameters = p;
+            version = v;
+        }
+
+        //null if fields are not from toFields
+        static Key parse(String[] fields){
+            if (fields.length != 4){
+                return null;
+            }
+            return new Key(fields[0], fields[1], fields[2], fields[3]);
+        }
+
+        @Override
+        public String[] toFields(){
+            return new String[]{chromosome, tier, parameters, version};
+        }
+
+        @Override
+        public String getChromosome(){
+            return chromosome;
+        }
+
+        @Override
+        public String getTier(){
+            return tier;
+        }
+
+        /* regions found with other parameters are kept unless out of date */
+        @Override
+        public boolean isReplacedBy(Key k){
+            return !version.equals(k.version);
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (!(o instanceof Key)){
+                return false;
+            }
+            Key k = (Key) o;
+            return chromosome.equals(k.chromosome) && tier.equals(k.tier) 
+                    && parameters.equals(k.parameters) 
+                    && version.equals(k.version);
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(chromosome, tier, parameters, version);
+        }
+    }
+}
@@ -23,13 +23,16 @@ package snpviewer;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 
 /**
 *
 * @author david
 */
 public class RegionSummary implements Comparable<RegionSummary>, Serializable{
+    /*fixed so that saved regions in projects written by earlier versions
+     * can still be loaded after changes to this class
+     */
+    private static final long serialVersionUID = -9188586072638798373L;
     private int startPos;
     private int endPos;
     private int startIndex;
@@ -154,44 +157,32 @@ public class RegionSummary implements Comparable<RegionSummary>, Serializable{
             }
         }
     }
+    /* merge overlapping regions on the same chromosome, leaving regions 
+     * sorted. Merged regions are new RegionSummaries.
+     */
     public void mergeRegionsByPosition(ArrayList<RegionSummary> regions){
         if (regions.size() < 2){
             return;
         }
         Collections.sort(regions);
-        Iterator<RegionSummary> rIter = regions.iterator();
-        RegionSummary previousRegion = rIter.next();
         ArrayList<RegionSummary> merged = new ArrayList<>();
-        while (rIter.hasNext()){
-            RegionSummary r = rIter.next();
-            if (r.getChromosome() == null && 
-                    previousRegion.getChromosome() == null){
-                if (previousRegion.getEndPos() >= r.getStartPos()){
-                    if (previousRegion.getEndPos() < r.getEndPos()){
-                        previousRegion.setEndPos(r.getEndPos());
-                    }
-                }else{
-                    merged.add(previousRegion);
-                    previousRegion = r;
-                }
-            }else if (r.getChromosome() == null || 
-                    previousRegion.getChromosome() == null){
-                merged.add(previousRegion);
-                previousRegion = r;
-            }else{//both not null
-                if (r.getChromosome().equalsIgnoreCase(previousRegion.getChromosome())
-                        && previousRegion.getEndPos() >= r.getStartPos()){
-                    if (previousRegion.getEndPos() < r.getEndPos()){
-                        previousRegion.setEndPos(r.getEndPos());
-                    }
-                }else{
-                    merged.add(previousRegion);
-                    previousRegion = r;
-                }
+        int chromStart = 0;
+        for (int i = 1; i <= regions.size(); i++){
+            if (i == regions.size() || !sameChromosome(regions.get(chromStart), 
+                    regions.get(i))){
+                merged.addAll(IntervalSet.of(regions.get(chromStart).getChromosome(),
+                        regions.subList(chromStart, i)).toRegions());
+                chromStart = i;
             }
         }
-        merged.add(previousRegion);
         regions.clear();
         regions.addAll(merged);
     }
+    
+    private static boolean sameChromosome(RegionSummary r1, RegionSummary r2){
+        if (r1.getChromosome() == null || r2.getChromosome() == null){
+            return r1.getChromosome() == null && r2.getChromosome() == null;
+        }
+        return r1.getChromosome().equalsIgnoreCase(r2.getChromosome());
+    }
 }//end of RegionSummary class
@@ -0,0 +1,95 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.concurrent.Worker;
+import javafx.scene.image.Image;
+
+/**
+ * Keeps track of which request to draw a view is the current one. Each
+ * request gets a new generation number from begin(), which cancels the
+ * draws and image loads of every earlier request. Callbacks check 
+ * isCurrent(generation) before touching the view, so anything finishing 
+ * for a superseded request (e.g. after flicking through chromosomes) is 
+ * simply discarded.
+ *
+ * Only to be used on the FX thread.
+ *
+ * @author david
+ */
+public class RenderCoordinator {
+    private long generation = 0;
+    private final List<Runnable> cancellers = new ArrayList<>();
+
+    /* start a new request, superseding any in progress */
+    public long begin(){
+        cancel();
+        return generation;
+    }
+
+    /* supersede the current request without starting another */
+    public void cancel(){
+        generation++;
+        //cancelling may run handlers that register more work
+        ArrayList<Runnable> toCancel = new ArrayList<>(cancellers);
+        cancellers.clear();
+        for (Runnable r: toCancel){
+            r.run();
+        }
+    }
+
+    public boolean isCurrent(long g){
+        return g == generation;
+    }
+
+    /* cancel worker when request g is superseded (or now if it already has
+     * been)
+     */
+    public void register(long g, final Worker<?> worker){
+        if (!isCurrent(g)){
+            worker.cancel();
+            return;
+        }
+        cancellers.add(new Runnable(){
+            @Override
+            public void run(){
+                worker.cancel();
+            }
+        });
+    }
+
+    /* as above for an image being loaded in the background */
+    public void register(long g, final Image image){
+        if (!isCurrent(g)){
+            image.cancel();
+            return;
+        }
+        cancellers.add(new Runnable(){
+            @Override
+            public void run(){
+                image.cancel();
+            }
+        });
+    }
+}
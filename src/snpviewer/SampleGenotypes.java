@@ -0,0 +1,127 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+/**
+ * One sample's SNPs for a chromosome as parallel arrays of positions and
+ * genotype codes - the input RegionFinder works on. These are read once
+ * per sample and chromosome from the sample's (quality filtered) 
+ * ChromosomeStore so that finding, refining and comparing regions are 
+ * loops over plain arrays rather than over SnpLines and their call 
+ * Strings.
+ *
+ * Codes are the PackedGenotypes codes. Calls other than the standard 
+ * ones (only found in very old chromosome files) are OTHER, which counts
+ * as homozygous when scanning for regions, as such calls always have, 
+ * but is never compared for concordance.
+ *
+ * @author david
+ */
+public class SampleGenotypes {
+    public static final byte NO_CALL = PackedGenotypes.NO_CALL;
+    public static final byte AA = PackedGenotypes.AA;
+    public static final byte BB = PackedGenotypes.BB;
+    public static final byte AB = PackedGenotypes.AB;
+    public static final byte OTHER = 4;
+
+    final ChromosomeStore store;
+    final int[] positions;//shared with store, not to be modified
+    final byte[] codes;
+
+    SampleGenotypes(ChromosomeStore s){
+        store = s;
+        positions = s.positions;
+        int n = s.size();
+        codes = new byte[n];
+        PackedGenotypes packed = s.getPackedGenotypes();
+        if (packed != null){
+            for (int i = 0; i < n; i++){
+                codes[i] = (byte) packed.get(i);
+            }
+        }else{
+            //work out what each call code means once rather than per SNP
+            byte[] meanings = new byte[s.callCodes.length];
+            for (int c = 0; c < meanings.length; c++){
+                meanings[c] = codeFor(s.callCodes[c]);
+            }
+            for (int i = 0; i < n; i++){
+                codes[i] = meanings[s.getGenotypeCode(i)];
+            }
+        }
+    }
+
+    /* genotypes of sample for chrom, or null if it has no readable file
+     * for chrom
+     */
+    static SampleGenotypes load(SnpFile sample, String chrom){
+        ChromosomeStore s = sample.getChromosomeStore(chrom);
+        if (s == null){
+            return null;
+        }
+        return new SampleGenotypes(s);
+    }
+
+    private static byte codeFor(String call){
+        for (int c = 0; c < ChromosomeStore.STANDARD_CALLS.length; c++){
+            if (ChromosomeStore.STANDARD_CALLS[c].equalsIgnoreCase(call)){
+                return (byte) c;
+            }
+        }
+        return OTHER;
+    }
+
+    public int size(){
+        return positions.length;
+    }
+
+    public String getChromosome(){
+        return store.getChromosome();
+    }
+
+    public String getId(int i){
+        return store.getId(i);
+    }
+
+    /* true if SNP i has the same ID as SNP j of other */
+    boolean hasSameId(int i, SampleGenotypes other, int j){
+        int id = store.ids[i];
+        int otherId = other.store.ids[j];
+        if (id >= 0 && otherId >= 0){
+            return id == otherId;
+        }
+        //IDs that aren't rs numbers are numbered separately for each file
+        return getId(i).equalsIgnoreCase(other.getId(j));
+    }
+
+    public static boolean isHomozygousCall(byte code){
+        return code == AA || code == BB;
+    }
+
+    /* no. of SNPs from (inclusive) to to (exclusive) with a genotype call */
+    public int countCalled(int from, int to){
+        return store.countCalled(from, to);
+    }
+
+    public int nearestIndex(int c, boolean lookBack){
+        return store.nearestIndex(c, lookBack);
+    }
+}
@@ -22,22 +22,17 @@
 package snpviewer;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
@@ -52,6 +47,21 @@ import javafx.concurrent.Task;
  * @author david
  */
 public class SnpFile extends Service<SnpFile> implements Serializable {
+    /*fixed so that projects saved by earlier versions can still be loaded
+     * after changes to this class
+     */
+    private static final long serialVersionUID = 1175070995207858288L;
+    //no. of lines read between progress updates while reading input
+    private static final int PROGRESS_INTERVAL = 1000;
+    private static final long DEFAULT_SORT_MEMORY_MB = 256;
+    //fraction of the overall conversion time taken up by reading input
+    private static final double READ_STEP_WEIGHT = 0.8;
+    //indices of the fields we ask BirdseedReader for on each data line
+    private static final int CHROM_FIELD = 0;
+    private static final int POSITION_FIELD = 1;
+    private static final int CALL_FIELD = 2;
+    private static final int ID_FIELD = 3;
+    private static final int CONFIDENCE_FIELD = 4;
     private String sampleName;
     File inputFile;
     File outputDirectory;
@@ -67,6 +77,10 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
     boolean hasQualityField = false;
     Double meanQuality;
     Double percentNoCall;
+    //memory to use for sorting input before spilling to disk (bytes)
+    private transient long sortMemoryBudget;
+    //step (1 to 3) the conversion task is on - used to give overall progress
+    private transient volatile int ingestStep = 0;
 
     SnpFile(File file, File outDir){
         inputFile = file;
@@ -114,6 +128,44 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
         return meanQuality;
     }
     
+    /* memory budget in bytes for sorting input lines - defaults to the
+     * value of -Dsnpviewer.sortMemoryMb (256 Mb if not set)
+     */
+    public void setSortMemoryBudget(long bytes){
+        sortMemoryBudget = bytes;
+    }
+    public long getSortMemoryBudget(){
+        if (sortMemoryBudget > 0){
+            return sortMemoryBudget;
+        }
+        return getDefaultSortMemoryBudget();
+    }
+    public static long getDefaultSortMemoryBudget(){
+        return Long.getLong("snpviewer.sortMemoryMb", DEFAULT_SORT_MEMORY_MB) * 1024 * 1024;
+    }
+    
+    /* progress through all three steps of converting the input file, 
+     * between 0 and 1. Each step reports its own progress via 
+     * progressProperty so this is for showing several files at once.
+     */
+    public double getIngestProgress(){
+        if (getState() == State.SUCCEEDED){
+            return 1;
+        }
+        if (ingestStep < 1){
+            return 0;
+        }
+        double stepProgress = Math.max(0, getProgress());
+        switch (ingestStep){
+            case 1:
+                return READ_STEP_WEIGHT * stepProgress;
+            case 2:
+                return READ_STEP_WEIGHT;
+            default:
+                return READ_STEP_WEIGHT + (1 - READ_STEP_WEIGHT) * stepProgress;
+        }
+    }
+    
     public void setBuildVersion(String build){
         buildVersion = build;
     }
@@ -132,40 +184,48 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
             @Override
             protected Object call() throws Exception {
 
-                int totalLines;
-                try{
-                    totalLines = LineCount.count(file);
-                }catch (IOException ex) {
-                    //ex.printStackTrace();
-                    throw new SnpFileException("IOException counting lines of " 
-                            + file.getAbsolutePath(), ex);
-                }
-                BufferedReader reader = null;
+                BirdseedReader reader = null;
+                ExternalSnpSorter sorter = null;
                 try{
-                    FileReader fileReader = new FileReader(file);
-                    reader = new BufferedReader(fileReader);
+                    /*progress is reported from the bytes consumed from the 
+                     * input so we only need to read the file once
+                     */
+                    reader = new BirdseedReader(file);
+                    long totalBytes = reader.getLength();
                     String line;
 
                     //TO DO
                     //change code below to implment an array of SnpLines instead
 
-                    ArrayList<SnpLine> sortBuffer = new ArrayList<>();
+                    /*lines go into one bucket per chromosome, which are 
+                     * spilled to sorted runs on disk if they won't fit in 
+                     * sortMemoryBudget
+                     */
+                    sorter = new ExternalSnpSorter(outputDir, getSortMemoryBudget());
                     List<String> comments = new ArrayList<>();
+                    //reuse Strings for repetitive fields rather than creating them per line
+                    List<String> chromNames = new ArrayList<>();
+                    List<String> callCodes = new ArrayList<>(Arrays.asList(
+                            "AA", "BB", "AB", "NoCall"));
                     boolean foundHeader = false;
                     int lineNumber = 0;
                     int totalCalls = 0;
                     int totalNoCalls = 0;
-                    Double sumConfidence = new Double(0);
+                    double sumConfidence = 0;
+                    ingestStep = 1;
                     updateMessage("Step 1 of 3: Reading input...");
-                    while ((line = reader.readLine()) != null){
+                    while (reader.nextLine()){
                         if (isCancelled()){
                             updateMessage("Cancelled");
                             return null;
                         }
                         lineNumber++;
-                        updateProgress(lineNumber, totalLines);
+                        if (lineNumber % PROGRESS_INTERVAL == 0){
+                            updateProgress(reader.getBytesConsumed(), totalBytes);
+                        }
 
-                        if (line.startsWith("#")){
+                        if (reader.lineStartsWith('#')){
+                            line = reader.getLine();
                             comments.add(line);
                             if (buildVersion == null){
                                 /*check build is valid (and accounted for 
@@ -192,7 +252,7 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
                             continue;
                         }
                         if (! foundHeader){
-                            boolean headerOk = (setHeader(line));
+                            boolean headerOk = (setHeader(reader.getLine()));
                             if (! headerOk){
                                 System.out.println("Header no good!");
                                 throw new SnpFileException("Invalid Header");
@@ -201,47 +261,82 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
                                 /*if (buildVersion == null){
                                     buildVersion = "hg19"; //DEFAULT GENOME BUILD
                                 }*/
+                                if (columns.containsKey("confidence")){
+                                    hasQualityField = true;
+                                    reader.setColumns(columns.get("chromosome"), 
+                                        columns.get("chromosomal position"), 
+                                        columns.get("call codes"), 
+                                        columns.get("dbsnp rs id"), 
+                                        columns.get("confidence"));
+                                }else{
+                                    reader.setColumns(columns.get("chromosome"), 
+                                        columns.get("chromosomal position"), 
+                                        columns.get("call codes"), 
+                                        columns.get("dbsnp rs id"));
+                                }
                                 continue;
                             }
                         }
                         
-                        String splitLine[] = line.split("\t");
-                        if (splitLine[columns.get("chromosome")].equals("---")){
+                        if (! reader.tokenize()){
+                            throw new SnpFileException("Snp line does not contain enough fields");
+                        }
+                        if (reader.fieldEquals(CHROM_FIELD, "---")){
                             continue;
                         }
                         
                         try{
-                            SnpLine snpLine = new SnpLine(line);
-                            if (snpLine.getCall().equalsIgnoreCase("nocall")){
+                            String chromosome = reader.matchField(CHROM_FIELD, chromNames);
+                            if (chromosome == null){
+                                if (! reader.fieldIsWord(CHROM_FIELD)){
+                                    throw new SnpFileException("No associated chromosome for SnpLine");
+                                }
+                                chromosome = reader.getField(CHROM_FIELD);
+                                chromNames.add(chromosome);
+                            }
+                            String call = reader.matchField(CALL_FIELD, callCodes);
+                            if (call == null){
+                                call = reader.getField(CALL_FIELD);
+                                callCodes.add(call);
+                            }
+                            double confidence = Double.NaN;
+                            if (hasQualityField){
+                                confidence = reader.getDoubleField(CONFIDENCE_FIELD);
+                            }
+                            boolean noCall = call.equalsIgnoreCase("nocall");
+                            if (noCall){
                                 totalNoCalls++;
                             }
-                            if (snpLine.getConfidence() != null && 
-                                    !snpLine.getCall().equalsIgnoreCase("nocall")){
-                                sumConfidence += snpLine.getConfidence();
+                            if (hasQualityField && !noCall){
+                                sumConfidence += confidence;
                                 totalCalls++;
                             }
-                            sortBuffer.add(snpLine);
+                            sorter.add(chromosome, reader.getIntField(POSITION_FIELD), 
+                                    reader.getField(ID_FIELD), call, confidence);
                         }catch (Exception ex){
                             Logger.getLogger(SnpFile.class.getName()).log(Level.SEVERE, null, ex);
                             throw new SnpFileException(ex);
                         }
                     }
+                    updateProgress(totalBytes, totalBytes);
+                    int totalSnps = sorter.size();
+                    if (totalSnps == 0){
+                        throw new SnpFileException("No SNP calls found in " 
+                                + file.getName());
+                    }
                     if (totalNoCalls > 0){
-                        percentNoCall =  100 * (double) totalNoCalls/sortBuffer.size();
+                        percentNoCall =  100 * (double) totalNoCalls/totalSnps;
                     }
-                    if (sumConfidence > 0 && !sortBuffer.isEmpty()){
-                        meanQuality = sumConfidence/sortBuffer.size();
+                    if (sumConfidence > 0){
+                        meanQuality = sumConfidence/totalSnps;
                     }
                     reader.close();
                     reader = null;
+                    ingestStep = 2;
+                    updateMessage("Step 2 of 3: Sorting SNP calls...");
+                    updateProgress(-1, -1);
                     try {
-                        /*external sort prob not necessary given current filesizes 
-                         */
-
-                        updateMessage("Step 2 of 3: Sorting SNP calls...");
-                        updateProgress(-1, -1);
-                        CoordinateCompare coordinateCompare = new CoordinateCompare();
-                        java.util.Collections.sort(sortBuffer, coordinateCompare);
+                        sorter.sortBuckets();
                         if (isCancelled()){
                             updateMessage("Cancelled");
                             return null;
@@ -251,70 +346,26 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
                         Logger.getLogger(SnpFile.class.getName()).log(Level.SEVERE, null, ex);
                         throw new SnpFileException(ex);
                     }
-                    /*write sorted lines from sortBuffer to one file
-                     * per chromsome plus one file for the header
+                    /*write sorted lines to one file per chromsome plus one 
+                     * file for the header. Each chromosome is merged from 
+                     * the sorter's runs and bucket in turn so only one 
+                     * chromosome at a time is held in memory.
                      */
+                    ingestStep = 3;
                     updateMessage("Step 3 of 3: writing output...");
-                    updateProgress(0, totalLines - comments.size() -1);
-                    String prevChromosome = sortBuffer.get(0).getChromosome();
-                    int prevIndex = 0;//index for start index of chromosome
-                    int index;
-                    for (index = 0; index < sortBuffer.size(); index++){
+                    updateProgress(0, totalSnps);
+                    int written = 0;
+                    for (String chrom: sorter.getChromosomes()){
                         if (isCancelled()){
                             updateMessage("Cancelled");
                             return null;
                         }
-                        updateProgress(index, (totalLines - comments.size()) -1);
-                        String chromosome = sortBuffer.get(index).getChromosome();
-                        if (! chromosome.equals(prevChromosome)){
-                            //serialise an arraylist for each chrom
-                            File chromFile = new File(outputDir.getPath() + "/chr" + prevChromosome + ".snpview");
-                            ObjectOutputStream out = null;
-                            try{
-                                FileOutputStream fos = new FileOutputStream(chromFile);
-                                out = new ObjectOutputStream(new BufferedOutputStream(fos));
-                                ArrayList<SnpLine> subList = new ArrayList<>(sortBuffer.subList(prevIndex, index - 1));
-                                removeDuplicateCoordinates(subList);//remove duplicate coordinates
-                                out.writeObject(subList);
-                                chromFiles.put(prevChromosome, chromFile);
-                                /* index will always be more than 0 as we've set 
-                                 * prevChromosome to the first chromosome before 
-                                 * starting this loop
-                                 */
-                            }catch (IOException ex){
-                                ex.printStackTrace();
-                                throw new SnpFileException(ex);
-                            }finally{
-                                if (out != null){
-                                    out.close();
-                                }
-                            }
-
-                            prevChromosome = chromosome;
-                            prevIndex = index;
-                        }
-                    }
-                    File chromFile = new File(outputDir.getPath() + "/chr" + prevChromosome + ".snpview");
-                    ObjectOutputStream out = null;
-                    try{
-                        FileOutputStream fos = new FileOutputStream(chromFile);
-                        out = new ObjectOutputStream(new BufferedOutputStream(fos));
-                        ArrayList<SnpLine> subList = new ArrayList<SnpLine>(sortBuffer.subList(prevIndex, index - 1));
-                        removeDuplicateCoordinates(subList);
-                        out.writeObject(subList);
-                        chromFiles.put(prevChromosome, chromFile);
-                        /* index will always be more than 0 as we've set 
-                         * prevChromosome to the first chromosome before 
-                         * starting this loop
-                         */
-                    }catch (IOException ex){
-                        ex.printStackTrace();
-                        throw new SnpFileException(ex);
-                    }finally{
-                        if (out != null){
-                            out.close();
-                        }
-
+                        ExternalSnpSorter.SortedChromosome sorted = 
+                                sorter.getSortedChromosome(chrom);
+                        writeChromFile(outputDir, chrom, sorted);
+                        sorter.release(chrom);
+                        written += sorted.size();
+                        updateProgress(written, totalSnps);
                     }
                     headerFile = new File(outputDir.getPath() + "/header.txt");
                     BufferedWriter writer = new BufferedWriter(new FileWriter(headerFile));
@@ -339,47 +390,33 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
                     if (reader != null){
                         reader.close();
                     }
+                    if (sorter != null){
+                        sorter.close();
+                    }
                 }
                 return true;
             }
         };
     }
-    /*check for snps with duplicate coordinates and remove duplicate with
-     * the worst (highest) confidence value (if available), else arbitrarily remove
-     * the last
+    /*write a sorted chromosome in ChromosomeStore's columnar format after 
+     * removing duplicate coordinates. The store is made straight from the
+     * sorter's columns, so no SnpLines are made. Markers go in the 
+     * project's MarkerCatalog so the file only holds calls and confidences.
      */
-    public void removeDuplicateCoordinates(ArrayList<SnpLine> snps){
-        Integer prevCoordinate = null;//check for duplicate coordinates
-        Double prevConfidence = null;//in case of duplicate coords pick the most confident call
-        ArrayList<Integer> indicesToRemove = new ArrayList<>();
-        for (int i = 0; i < snps.size(); i++){
-            if (prevCoordinate == null){
-                prevCoordinate = snps.get(i).getPosition();
-                prevConfidence = snps.get(i).getConfidence();
-                continue;
-            }
-            if (prevCoordinate == snps.get(i).getPosition()){
-                if (snps.get(i).getConfidence() != null && prevConfidence != null){
-                    if (snps.get(i).getConfidence() > prevConfidence){
-                        indicesToRemove.add(i);
-                    }else{
-                        indicesToRemove.add(i-1);
-                    }
-                }else{
-                    indicesToRemove.add(i);
-                }
-            }
-            prevCoordinate = snps.get(i).getPosition();
-            prevConfidence = snps.get(i).getConfidence();
-        }
-        if (!indicesToRemove.isEmpty()){
-            Collections.sort(indicesToRemove, Collections.reverseOrder());
-            for (int i: indicesToRemove){
-                snps.remove(i);
-            }
+    private void writeChromFile(File outputDir, String chrom, 
+            ExternalSnpSorter.SortedChromosome sorted) throws SnpFileException{
+        File chromFile = new File(outputDir.getPath() + "/chr" + chrom + ".snpview");
+        try{
+            MarkerCatalog.writeChromosome(chromFile, 
+                    ChromosomeStore.fromSortedColumns(chrom, sorted.positions, 
+                    sorted.ids, sorted.calls, sorted.confidences));
+            chromFiles.put(chrom, chromFile);
+        }catch (IOException ex){
+            ex.printStackTrace();
+            throw new SnpFileException(ex);
         }
     }
-
+    
     public void addChromFile(String chrom, File chromFile){
         chromFiles.put(chrom, chromFile);
     }
@@ -387,57 +424,82 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
         chromFiles.clear();
     }
 
-    public ArrayList<SnpLine> readChromFile(String chrom){
+    /*SNPs passing qualityFilter for chrom, from ChromosomeCache if it has 
+     * already been read. Returns null if there is no file for chrom.
+     */
+    public ChromosomeStore getChromosomeStore(String chrom){
+        return getChromosomeStore(chrom, qualityFilter);
+    }
+    
+    /*SNPs passing filter rather than the current qualityFilter */
+    public ChromosomeStore getChromosomeStore(String chrom, Double filter){
         if (! chromFiles.containsKey(chrom)){
             return null;
         }
-        File objectFile = chromFiles.get(chrom);
-        return readChromFile (objectFile);
+        return getChromosomeStore(chromFiles.get(chrom), filter);
     }
-
-    public ArrayList<SnpLine> readChromFile(File chromFile){
-        ArrayList<SnpLine> snpLines = new ArrayList<>();
+    
+    /*as above, returns null if chromFile can't be read */
+    public ChromosomeStore getChromosomeStore(File chromFile){
+        return getChromosomeStore(chromFile, qualityFilter);
+    }
+    
+    private ChromosomeStore getChromosomeStore(File chromFile, Double filter){
         try{
-            ObjectInputStream is = new ObjectInputStream(new BufferedInputStream
-                    (new FileInputStream(chromFile)));
-            try {
-                snpLines = (ArrayList<SnpLine>) is.readObject();
-            } catch (ClassNotFoundException ex) {
-                Logger.getLogger(SnpFile.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            is.close();
+            return ChromosomeCache.getInstance().get(chromFile, filter, 
+                    SnpFile::loadChromFile);
         }catch (IOException ex) {
             Logger.getLogger(SnpFile.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
         }
-        if (qualityFilter != null){
-            filterOnQuality(snpLines);
-        }
-        return snpLines;
     }
-    /*whenever we read SNPs from a chromFile we check if qualityFilter is set
-     * and if so we use this method to remove SNPs that have a worse (higher) 
-     * quality score, where available
+    
+    /*decode a chromosome file in either format, without quality filtering.
+     * The format is checked on the same stream that is read so that a file 
+     * being replaced by ProjectMigrator is read consistently.
      */
-    public void filterOnQuality(ArrayList<SnpLine> snps){
-        if (qualityFilter == null || qualityFilter < 0){
-            return;
-        }
-        
-        ArrayList<Integer> indicesToRemove = new ArrayList<>();
-        for (int i = 0; i < snps.size(); i++){
-            if (snps.get(i).getConfidence() != null && 
-                    snps.get(i).getConfidence() > qualityFilter){
-                indicesToRemove.add(i);
+    static ChromosomeStore loadChromFile(File chromFile) throws IOException{
+        try (BufferedInputStream in = new BufferedInputStream
+                    (new FileInputStream(chromFile))){
+            if (ChromosomeStore.startsWithMagic(in)){
+                return ChromosomeStore.read(in, chromFile);
             }
-        }
-        if (!indicesToRemove.isEmpty()){
-            Collections.sort(indicesToRemove, Collections.reverseOrder());
-            for (int index: indicesToRemove){
-                snps.remove(index);
+            ArrayList<SnpLine> lines = readLegacyChromFile(in);
+            String chrom = ProjectMigrator.chromFromFileName(chromFile);
+            if (!lines.isEmpty()){
+                chrom = lines.get(0).getChromosome();
             }
+            return ChromosomeStore.fromSnpLines(chrom, lines);
+        }catch (ClassNotFoundException ex){
+            throw new IOException("Could not read " + chromFile.getPath(), ex);
         }
     }
-
+    
+    /*reads a serialized ArrayList of SnpLines as written before the columnar
+     * format was added - no quality filtering is applied
+     */
+    static ArrayList<SnpLine> readLegacyChromFile(InputStream in) 
+            throws IOException, ClassNotFoundException{
+        ObjectInputStream is = new ObjectInputStream(in);
+        return (ArrayList<SnpLine>) is.readObject();
+    }
+    
+    /*SnpLines for SNPs start to end (inclusive) of store - call codes and 
+     * the chromosome name are shared rather than copied
+     */
+    ArrayList<SnpLine> toSnpLines(ChromosomeStore store, int start, int end){
+        ArrayList<SnpLine> snpLines = new ArrayList<>(Math.max(0, end - start + 1));
+        for (int i = start; i <= end; i++){
+            snpLines.add(toSnpLine(store, i));
+        }
+        return snpLines;
+    }
+    
+    SnpLine toSnpLine(ChromosomeStore store, int i){
+        return new SnpLine(store.getChromosome(), store.getPosition(i), 
+                store.getId(i), store.getCall(i), store.getConfidence(i));
+    }
+    
     public void addHeaderFile(File hFile){
         headerFile = hFile;
     }
@@ -473,6 +535,10 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
     }
     */
     public class SnpLine implements Serializable {
+        /*fixed so that .snpview files written by earlier versions can still
+         * be read after changes to this class
+         */
+        private static final long serialVersionUID = -2854287586250032373L;
         private String chromosome;
         private int position;
         private String id;
@@ -515,6 +581,16 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
             }
             
         }
+        /* constructor taking already parsed fields, as used when reading
+         * input with BirdseedReader
+         */
+        SnpLine(String chrom, int pos, String snpId, String callCode, Double conf){
+            chromosome = chrom;
+            position = pos;
+            id = snpId;
+            call = callCode;
+            confidence = conf;
+        }
         /* alternative constructor takes a hash map to 
          * create snp HashMap - must have all required fields
          */
@@ -575,17 +651,6 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
     }
 
 
-    class CoordinateCompare implements Comparator<SnpLine>{
-            @Override
-            public int compare(SnpLine a, SnpLine b){
-                int c = a.getChromosome().compareTo(b.getChromosome());
-                if (c == 0){
-                    return  a.getPosition() - b.getPosition();
-                }
-                return c;
-            }
-    }
-
     public class SnpFileException extends Exception{
         public SnpFileException() { super(); }
         public SnpFileException(String message) { super(message); }
@@ -621,42 +686,90 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
         return true;
     }
     
+    /*SNPs in a region are read from the cached ChromosomeStore if the 
+     * chromosome has already been read, otherwise just the region is read
+     * from the chromosome file. Either way only the SnpLines 
+     * returned are created.
+     */
     public List<SnpLine> getSnpsInRegion(String chrom, int start, int end){
-        if (!chromFiles.containsKey(chrom)){
+        return getSnpsInRegion(chrom, start, end, 0);
+    }
+    
+    public List<SnpLine> getSnpsInRegion(String chrom, int start, int end, int flanks){
+        ChromosomeStore region = getRegionStore(chrom, start, end, flanks);
+        if (region == null){
             return null;
         }
-        ArrayList<SnpLine> snpLines = readChromFile(chrom);
-        int s = binSearchNearestCoordinate(start, snpLines, true);
-        int e = binSearchNearestCoordinate(end, snpLines, false);
-        return snpLines.subList(s, e + 1);
-        
+        return toSnpLines(region, 0, region.size() - 1);
     }
     
-    public List<SnpLine> getSnpsInRegion(String chrom, int start, int end, int flanks){
+    /*as getSnpsInRegion but without making SnpLines, for drawing etc. */
+    public ChromosomeStore getRegionStore(String chrom, int start, int end, 
+            int flanks){
+        return getRegionStore(chrom, start, end, flanks, qualityFilter);
+    }
+    
+    /*as above for SNPs passing filter rather than the current qualityFilter,
+     * for work in the background that must use one filter throughout
+     */
+    public ChromosomeStore getRegionStore(String chrom, int start, int end, 
+            int flanks, Double filter){
         if (!chromFiles.containsKey(chrom)){
             return null;
         }
-        ArrayList<SnpLine> snpLines = readChromFile(chrom);
-        int s = binSearchNearestCoordinate(start, snpLines, true);
-        int e = binSearchNearestCoordinate(end, snpLines, false);
+        ChromosomeStore store = ChromosomeCache.getInstance().peek(
+                chromFiles.get(chrom), filter);
+        if (store == null){
+            try (ChromRegionReader reader = openRegionReader(chrom)){
+                if (reader != null){
+                    return reader.getRegion(start, end, flanks, filter);
+                }
+            }catch (IOException | UncheckedIOException ex){
+                Logger.getLogger(SnpFile.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            store = getChromosomeStore(chrom, filter);
+        }
+        if (store == null || store.size() == 0){
+            return store;
+        }
+        int s = store.nearestIndex(start, true);
+        int e = store.nearestIndex(end, false);
         s = Math.max(0, s - flanks);
-        e = Math.min(e + flanks, snpLines.size() -1);
-        return snpLines.subList(s, e + 1);
-        
+        e = Math.min(e + flanks, store.size() -1);
+        return store.range(s, e);
     }
     
     public List<SnpLine> getFlankingSnps(String chrom, int start, int end){
         if (!chromFiles.containsKey(chrom)){
             return null;
         }
-        ArrayList<SnpLine> snpLines = readChromFile(chrom);
-        int s = binSearchNearestCoordinate(start, snpLines, true);
-        int e = binSearchNearestCoordinate(end, snpLines, false);
-        SnpLine startSnp = snpLines.get(s);
-        SnpLine endSnp = snpLines.get(e);
+        ChromosomeStore store = getCachedChromosomeStore(chrom);
+        if (store == null){
+            try (ChromRegionReader reader = openRegionReader(chrom)){
+                if (reader != null){
+                    int s = reader.nearestIndex(start, true, qualityFilter);
+                    int e = reader.nearestIndex(end, false, qualityFilter);
+                    if (s < 0){
+                        return null;
+                    }
+                    ArrayList<SnpLine> snpsToReturn = new ArrayList<>();
+                    snpsToReturn.add(toSnpLine(reader.slice(s, s, null), 0));
+                    snpsToReturn.add(toSnpLine(reader.slice(e, e, null), 0));
+                    return snpsToReturn;
+                }
+            }catch (IOException | UncheckedIOException ex){
+                Logger.getLogger(SnpFile.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            store = getChromosomeStore(chrom);
+        }
+        if (store == null){
+            return null;
+        }
+        int s = store.nearestIndex(start, true);
+        int e = store.nearestIndex(end, false);
         ArrayList<SnpLine> snpsToReturn = new ArrayList<>();
-        snpsToReturn.add(startSnp);
-        snpsToReturn.add(endSnp);
+        snpsToReturn.add(toSnpLine(store, s));
+        snpsToReturn.add(toSnpLine(store, e));
         return snpsToReturn;
         
     }
@@ -665,47 +778,36 @@ public class SnpFile extends Service<SnpFile> implements Serializable {
         if (!chromFiles.containsKey(chrom)){
             return null;
         }
-        ArrayList<SnpLine> snpLines = readChromFile(chrom);
-        int i = binSearchNearestCoordinate(coordinate, snpLines, refineBackwards);
-        SnpLine snpFound = snpLines.get(i);
-        return snpFound;
-    }
-
-    public int binSearchNearestCoordinate (int c, ArrayList<SnpLine> snps, final boolean lookBack){
-        /* look for coordinate (c) in snps and return index if found.
-         * If not found look either backward or forward in snps (depending 
-         * on boolean lookBack) and return the first value less than (if 
-         * lookBack is true) or more than (if lookBack is false) coordinate
-         */
-        int l = 0;
-        int u = snps.size() - 1;
-        int i = 0;
-        while (l <= u){
-            i = (u + l) / 2;
-            int x = snps.get(i).getPosition();
-            if (x > c){
-                u = i - 1;
-            }else if (x < c){
-                l = i + 1;
-            }else{
-                return i;//found
-            }
-        }
-        //not found - return closest snp in whichever direction
-        if (lookBack){
-            for (int j = i; j > 0; j--){
-                if (snps.get(j).getPosition() < c){
-                    return j;
-                }
-            }
-            return 0;
-        }else{
-            for (int j = i; j < snps.size(); j++){
-                if (snps.get(j).getPosition() > c){
-                    return j;
+        ChromosomeStore store = getCachedChromosomeStore(chrom);
+        if (store == null){
+            try (ChromRegionReader reader = openRegionReader(chrom)){
+                if (reader != null){
+                    int i = reader.nearestIndex(coordinate, refineBackwards, 
+                            qualityFilter);
+                    return i < 0 ? null : toSnpLine(reader.slice(i, i, null), 0);
                 }
+            }catch (IOException | UncheckedIOException ex){
+                Logger.getLogger(SnpFile.class.getName()).log(Level.SEVERE, null, ex);
             }
-            return snps.size() - 1;
+            store = getChromosomeStore(chrom);
         }
+        if (store == null){
+            return null;
+        }
+        int i = store.nearestIndex(coordinate, refineBackwards);
+        return toSnpLine(store, i);
+    }
+    
+    private ChromosomeStore getCachedChromosomeStore(String chrom){
+        return ChromosomeCache.getInstance().peek(chromFiles.get(chrom), 
+                qualityFilter);
+    }
+    
+    /*null if the file can't be read by region (e.g. an older format). 
+     * The reader holds the file open, so is closed after each query rather
+     * than kept, leaving the file free to be replaced or deleted.
+     */
+    private ChromRegionReader openRegionReader(String chrom) throws IOException{
+        return ChromRegionReader.open(chromFiles.get(chrom));
     }
-}
\ No newline at end of file
+}
@@ -21,7 +21,6 @@
 
 package snpviewer;
 
-import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -33,7 +32,6 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import static java.lang.System.getProperty;
 import java.net.URL;
-import java.nio.file.Files;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -45,6 +43,7 @@ import java.util.ResourceBundle;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.value.ChangeListener;
@@ -88,12 +87,16 @@ import javafx.scene.shape.Line;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javax.imageio.ImageIO;
-import static java.nio.file.StandardCopyOption.*;
 import java.text.DecimalFormat;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Optional;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javafx.concurrent.Worker;
 import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.geometry.Rectangle2D;
@@ -127,6 +130,7 @@ import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Hyperlink;
 import javafx.stage.WindowEvent;
+import javafx.util.Duration;
 
 
 /**
@@ -205,6 +209,8 @@ public class SnpViewer extends Application implements Initializable, Serializabl
     @FXML
     MenuItem cacheChromsMenu;
     @FXML
+    MenuItem migrateProjectsMenu;
+    @FXML
     MenuItem saveToPngMenu;
     @FXML
     MenuItem newProjectMenu;
@@ -260,6 +266,11 @@ public class SnpViewer extends Application implements Initializable, Serializabl
     //buttons etc.
     @FXML
     Button cacheChromsButton;
+    ChromosomeImageCacher imageCacher;//null unless caching chromosome images
+    //the current drawing of the main view - a new one abandons the last
+    final RenderCoordinator viewRenders = new RenderCoordinator();
+    final PauseTransition resizeRedraw = new PauseTransition(Duration.millis(400));
+    double drawnWidth = 0;//of chromSplitPane when the view was last drawn
     @FXML
     Button findRegionsButton;
     @FXML
@@ -329,6 +340,10 @@ public class SnpViewer extends Application implements Initializable, Serializabl
     
     Double qualityFilter = null;
     
+    //max no. of input files to convert at once (-Dsnpviewer.ingestThreads=N)
+    int maxConcurrentIngest = Integer.getInteger("snpviewer.ingestThreads", 
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+    
     public static void main(String[] args) {
         
         Application.launch(SnpViewer.class, (java.lang.String[])null);
@@ -656,7 +671,7 @@ public class SnpViewer extends Application implements Initializable, Serializabl
                             r.setFill(colorPicker.getValue());
                         }
                     }else{
-                        removeSavedChromosomeImages();
+                        //cached images are only used for the colours they had
                         if (redrawCheckBox.isSelected()){
                             refreshView(null, true);
                         }
@@ -700,11 +715,26 @@ public class SnpViewer extends Application implements Initializable, Serializabl
             }
         });
         
+        /*once the width has settled redraw the view - only panes without a 
+         * cached image at the new width are actually drawn
+         */
+        resizeRedraw.setOnFinished(new EventHandler<ActionEvent>(){
+            @Override
+            public void handle(ActionEvent e){
+                if (!progressMode && !chromSplitPane.getItems().isEmpty() &&
+                        !chromosomeSelector.getSelectionModel().isEmpty() &&
+                        chromSplitPane.getWidth() != drawnWidth){
+                    refreshView((String) chromosomeSelector.getSelectionModel()
+                            .getSelectedItem(), false);
+                }
+            }
+        });
         selectionOverlayPane.widthProperty().addListener(new ChangeListener<Number>() {
             @Override 
             public void changed(ObservableValue<? extends Number> 
                     observableValue, Number oldSceneWidth, Number newSceneWidth) {
                 windowResized(new ActionEvent());
+                resizeRedraw.playFromStart();
             }
         });
        
@@ -1008,9 +1038,9 @@ public class SnpViewer extends Application implements Initializable, Serializabl
             colorPicker.fireEvent(new ActionEvent());
         }
         colorComponantSelector.getSelectionModel().selectFirst();
-        removeSavedChromosomeImages();
         refreshView((String) chromosomeSelector.
-                        getSelectionModel().getSelectedItem(), true);
+                        getSelectionModel().getSelectedItem(), 
+                        redrawCheckBox.isSelected());
     }
     
     public void saveColours(ActionEvent e){
@@ -1081,9 +1111,9 @@ public class SnpViewer extends Application implements Initializable, Serializabl
                 colorComp.addAll(loadedColors);
                 is.close();
                 saveProject();
-                removeSavedChromosomeImages();
                 refreshView((String) chromosomeSelector.
-                        getSelectionModel().getSelectedItem(), true);
+                        getSelectionModel().getSelectedItem(), 
+                        redrawCheckBox.isSelected());
             }catch (IOException | ClassNotFoundException ex){
                 
             }
@@ -1113,7 +1143,6 @@ public class SnpViewer extends Application implements Initializable, Serializabl
                    + "-" + nf.format(startCoordinate + selectionWidth) );
            //scene.getStylesheets().add(SnpViewer.class
            //             .getResource("SnpViewerStyleSheet.css").toExternalForm());
-           String subPath = "zoom"; 
            stage.initModality(Modality.NONE);
            stage.getIcons().add(new Image(this.getClass().
                     getResourceAsStream("icon.png")));
@@ -1129,16 +1158,12 @@ public class SnpViewer extends Application implements Initializable, Serializabl
            zoomController.setRegionStart(startCoordinate);
            zoomController.setChromosome(currentChrom);
            SplitPane zoomSplit = zoomController.getSplitPane();
-           Iterator<SnpFile> sIter = bothFiles.iterator();
-           Iterator<Pane> pIter = zoomPanes.iterator();
-           if (!sIter.hasNext() || !pIter.hasNext()){
+           if (zoomPanes == null || zoomPanes.isEmpty()){
                return;
            }
-           SnpFile firstFile = sIter.next();
-           Pane firstPane = pIter.next();
-           drawCoordinatesWithIterator(firstFile, firstPane, subPath, sIter, pIter, 
-                   1, bothFiles.size(), currentChrom, startCoordinate, 
-                   startCoordinate + selectionWidth, true, zoomSplit);
+           drawPanes(bothFiles, zoomPanes, currentChrom, startCoordinate, 
+                   startCoordinate + selectionWidth, true, zoomSplit, 
+                   new RenderCoordinator());
            zoomController.tidyPanes();
            
         }catch(ChromosomeLength.ChromosomeLengthException | IOException ex){
@@ -1171,45 +1196,6 @@ public class SnpViewer extends Application implements Initializable, Serializabl
         }
     }
     
-    private void removeSavedChromosomeImages(){
-        ArrayList<SnpFile> bothFiles = new ArrayList<>(affFiles);
-        bothFiles.addAll(unFiles);
-        for (SnpFile f: bothFiles){
-            for (Iterator it = chromosomeSelector.getItems().iterator(); 
-                    it.hasNext();) {
-                String chrom = (String) it.next();
-                 /*below is a horrible cludgy fix to remove the sub folders - 
-                 * need to set up an enum or global variable for the call values 
-                 * to be used in different contexts at some point 
-                 */
-                ArrayList<String> quals = new ArrayList<>(Arrays.asList(null, "85", 
-                "90", "95", "99"));
-                for (String sub: quals){
-                    File pngFile = new File(f.getOutputDirectoryName() + "/" + chrom + ".png");
-                    if (sub != null){
-                        pngFile = new File(f.getOutputDirectoryName() + "/" + sub 
-                                + "/" + chrom + ".png");
-                    }
-                    if (pngFile.exists()){
-                        boolean deleted = pngFile.delete();
-                        if (! deleted){
-                            Alert error = new Alert(AlertType.ERROR);
-                            error.setTitle("SnpViewer");
-                            error.setHeaderText("Error deleting old chromosome images");
-                            error.setContentText("Unable to delete old chromosome "
-                                    + "image " + pngFile.getPath() +". Please check"
-                                    + " permissions.");
-                            error.showAndWait();
-                            return;
-                        }
-                    }
-                }
-               
-                
-            }
-        }
-    }
-    
     public void chromosomeSelected (String chrom){
         clearDragSelectRectangle();
         selectionOverlayPane.getChildren().clear();
@@ -1489,131 +1475,106 @@ public class SnpViewer extends Application implements Initializable, Serializabl
         if (response.get() != okButton){
             return;
         }
-        List chroms = chromosomeSelector.getItems();
-        setProgressMode(true);
-        Iterator chromIter = chroms.iterator();
         ArrayList<SnpFile> bothFiles = new ArrayList<>(affFiles);
         bothFiles.addAll(unFiles);
-        Pane tempPane =  new Pane();
-        tempPane.setMinWidth(chromSplitPane.getWidth());
-        tempPane.setMinHeight(chromSplitPane.getHeight());
-        //tempPane.setCache(true);
-        chromSplitPane.getItems().clear();
-        chromSplitPane.getItems().add(tempPane);
-        final Iterator fileIter = bothFiles.iterator();
-        String firstChrom = (String) chromIter.next();
-        SnpFile firstFile = (SnpFile) fileIter.next();
-        Stage stage = (Stage) chromSplitPane.getScene().getWindow();
-        //stage.setResizable(false);
-        fixStageSize(stage, true);
-        progressBar.progressProperty().unbind();
-        progressBar.progressProperty().setValue(0);
-        String pngPath = null;
-        if (qualityFilter != null){
-            Integer percent = new Integer(100 - (int) (qualityFilter * 100));
-            pngPath = percent.toString();
+        ArrayList<String> chroms = new ArrayList<>(chromosomeSelector.getItems());
+        /*images are drawn off screen by a pool of threads, so the view can
+         * still be used while caching
+         */
+        final ChromosomeImageCacher cacher = new ChromosomeImageCacher(bothFiles, 
+                chroms, DrawSnpsToPane.pixels(chromSplitPane.getWidth()), 
+                DrawSnpsToPane.pixels(chromSplitPane.getHeight()), 
+                ChromosomeRaster.toArgb(colorComp.get(Colors.aa.value)), 
+                ChromosomeRaster.toArgb(colorComp.get(Colors.bb.value)), 
+                ChromosomeRaster.toArgb(colorComp.get(Colors.ab.value)));
+        imageCacher = cacher;
+        cacheChromsButton.setDisable(true);
+        cacheChromsMenu.setDisable(true);
+        cacher.setOnSucceeded(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                finishCaching(cacher);
+                List<String> failures = cacher.getFailures();
+                if (!failures.isEmpty()){
+                    Alert warning = new Alert(AlertType.WARNING);
+                    warning.getDialogPane().setPrefSize(420, 250);
+                    warning.setResizable(true);
+                    warning.setTitle("SnpViewer");
+                    warning.setHeaderText("Caching Finished");
+                    StringBuilder content = new StringBuilder(failures.size() 
+                            + " chromosome images could not be cached:");
+                    for (String failure: failures){
+                        content.append("\n").append(failure);
+                    }
+                    warning.setContentText(content.toString());
+                    warning.showAndWait();
+                }
+            }
+        });
+        cacher.setOnFailed(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                finishCaching(cacher);
+                Alert error = new Alert(AlertType.ERROR);
+                error.getDialogPane().setPrefSize(420, 200);
+                error.setResizable(true);
+                error.setTitle("SnpViewer");
+                error.setHeaderText("Caching Error");
+                error.setContentText("Error caching chromosome images\n" + 
+                        cacher.getException().getLocalizedMessage());
+                cacher.getException().printStackTrace();
+                error.showAndWait();
+            }
+        });
+        cacher.setOnCancelled(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                finishCaching(cacher);
+            }
+        });
+        showCachingProgress();
+        cacher.start();
+    }
+    
+    /* put the progress of the image cacher in the progress bar - also used to 
+     * get it back when another task that used the progress bar finishes
+     */
+    private void showCachingProgress(){
+        final ChromosomeImageCacher cacher = imageCacher;
+        if (cacher == null || !cacher.isRunning() || progressMode){
+            return;
         }
-        cacheChromsWithIterator(chromIter, firstFile, tempPane, 
-            pngPath, fileIter, 1, bothFiles.size() * chroms.size(), firstChrom);
-        
+        progressBar.progressProperty().unbind();
+        progressBar.progressProperty().bind(cacher.progressProperty());
+        progressMessage.textProperty().unbind();
+        progressMessage.textProperty().bind(cacher.messageProperty());
+        progressTitle.textProperty().unbind();
+        progressTitle.setText("Caching Chromosome Images");
+        cancelButton.setOnAction(new EventHandler<ActionEvent>(){
+            @Override
+            public void handle(ActionEvent actionEvent){
+                cacher.cancel();
+            }
+        });
+        cancelButton.setDisable(false);
     }
-       
-    public void cacheChromsWithIterator(final Iterator chromIter, final SnpFile sfile, 
-            final Pane pane, final String pngPath, final Iterator sIter,
-            final int currentFile, final int totalFiles, final String chrom){
-        final DrawSnpsToPane draw = new DrawSnpsToPane(pane, sfile, chrom, 
-                   Colors.aa.value, Colors.bb.value, Colors.ab.value);
-
-           progressBar.progressProperty().unbind();
-           //progressBar.progressProperty().bind(draw.progressProperty());
-           progressTitle.setText("Processing chr" + chrom );
-           progressMessage.setText("File " + sfile.inputFile.getName());
-           cancelButton.setOnAction(new EventHandler<ActionEvent>(){
-               @Override
-               public void handle(ActionEvent actionEvent){
-                    draw.cancel();
-
-                }
-           });
-
-           draw.setOnCancelled(new EventHandler<WorkerStateEvent>(){
-               @Override
-               public void handle (WorkerStateEvent t){
-                   progressBar.progressProperty().unbind();
-                   progressBar.setProgress(0);
-                   progressTitle.setText("Drawing Cancelled");
-                   progressMessage.textProperty().unbind();
-                   progressMessage.setText("Drawing Cancelled");
-                   setProgressMode(false);
-                   Stage stage = (Stage) chromSplitPane.getScene().getWindow();
-                   fixStageSize(stage, false);        
-                  // stage.setResizable(true);
-               }
-           });
-           draw.setOnSucceeded(new EventHandler<WorkerStateEvent>(){
-               @Override
-               public void handle (WorkerStateEvent t){
-                   ArrayList<HashMap<String, Double>> result = (ArrayList<HashMap<String, Double>>) t.getSource().getValue();
-                   progressBar.progressProperty().unbind();
-                   progressBar.setProgress((double) currentFile/((double) totalFiles * 2));
-                   progressTitle.setText("");
-                   progressMessage.textProperty().unbind();
-                   progressMessage.setText("");
-                   pane.getChildren().clear();
-                   /*if (pane.getMinHeight() < 200){
-                       pane.setMinHeight(200);
-                   }
-                   if (pane.getMinWidth() < 800){
-                       pane.setMinWidth(800);
-                   }*/
-                   if (result != null){
-                       List<Line> lines = drawLinesToPane(pane, result);
-                       pane.getChildren().addAll(lines);
-                       convertSampleViewToImage(sfile, pane, chrom, pngPath);
-                       lines.clear();
-                   }
-                   progressBar.setProgress((double) currentFile/(double) totalFiles);
-                   if (sIter.hasNext()){
-                       cacheChromsWithIterator(chromIter, (SnpFile) sIter.next(), pane, 
-                               pngPath, sIter, currentFile + 1, totalFiles, chrom);
-                   }else{
-                       if (chromIter.hasNext()){
-                           ArrayList<SnpFile> bothFiles = new ArrayList<>(affFiles);
-                           bothFiles.addAll(unFiles);
-                           Iterator sIterNew = bothFiles.iterator();
-                           cacheChromsWithIterator(chromIter, (SnpFile) sIterNew.next(), pane, 
-                               pngPath, sIterNew, currentFile + 1, totalFiles, (String) chromIter.next());
-                       }else{
-                           progressBar.progressProperty().unbind();
-                           progressBar.setProgress(0);
-                           setProgressMode(false);
-                           redrawCheckBox.setSelected(false);
-                           chromosomeSelector.getSelectionModel().selectFirst();
-                           refreshView((String) chromosomeSelector.
-                                   getSelectionModel().getSelectedItem(), false);
-                           Stage stage = (Stage) chromSplitPane.getScene().getWindow();
-                           fixStageSize(stage, false);
-                           stage.setResizable(true);
-                       }
-                   }
-               }
-           });
-           draw.setOnFailed(new EventHandler<WorkerStateEvent>(){
-                        @Override
-                        public void handle(WorkerStateEvent t){
-                            progressBar.progressProperty().unbind();
-                            progressBar.setProgress(0);
-                            progressTitle.setText("ERROR!");
-                            progressMessage.textProperty().unbind();
-                            progressMessage.setText("Drawing failed!");
-                            setProgressMode(false);
-                            Stage stage = (Stage) chromSplitPane.getScene().getWindow();
-                            stage.setResizable(true);
-                            fixStageSize(stage, false);
-                        }
-
-                    });
-           draw.start();
+    
+    private void finishCaching(ChromosomeImageCacher cacher){
+        if (imageCacher != cacher){
+            return;
+        }
+        imageCacher = null;
+        if (!progressMode){
+            progressBar.progressProperty().unbind();
+            progressBar.progressProperty().set(0);
+            progressTitle.textProperty().unbind();
+            progressMessage.textProperty().unbind();
+            progressTitle.setText("");
+            progressMessage.setText("");
+            cancelButton.setDisable(true);
+            cacheChromsButton.setDisable(false);
+            cacheChromsMenu.setDisable(false);
+        }
     }
     
     private void clearSplitPanes(){
@@ -1627,12 +1588,6 @@ public class SnpViewer extends Application implements Initializable, Serializabl
                         ImageView i = (ImageView) pChild;
                         i.fitHeightProperty().unbind();
                         i.fitWidthProperty().unbind();
-                    }else if (pChild instanceof Line){
-                        Line l = (Line) pChild;
-                        l.startXProperty().unbind();
-                        l.endXProperty().unbind();
-                        l.startYProperty().unbind();
-                        l.endYProperty().unbind();
                     }
                 }
                 p.minWidthProperty().unbind();
@@ -1820,17 +1775,9 @@ public class SnpViewer extends Application implements Initializable, Serializabl
             
             ArrayList<SnpFile> bothFiles = new ArrayList<>(affFiles);
             bothFiles.addAll(unFiles);
-            final Iterator<SnpFile> fileIter = bothFiles.iterator();
-            final Iterator<Pane> paneIter = panesToAdd.iterator();
-            SnpFile firstFileToProcess = fileIter.next();
-            Pane firstPaneToProcess = paneIter.next();
-            String pngPath = null;
-            if (qualityFilter != null){
-                Integer percent = new Integer(100 - (int) (qualityFilter * 100));
-                pngPath = percent.toString();
-            }
-            drawWithIterator(firstFileToProcess, firstPaneToProcess, pngPath, fileIter, 
-                    paneIter, 1, totalFiles, chrom, forceRedraw, chromSplitPane);
+            drawnWidth = chromSplitPane.getWidth();
+            drawPanes(bothFiles, panesToAdd, chrom, null, null, 
+                    forceRedraw, chromSplitPane, viewRenders);
         }else{
             setProgressMode(false);
         }
@@ -1854,271 +1801,216 @@ public class SnpViewer extends Application implements Initializable, Serializabl
         }
     }
     
-    public void drawWithIterator(final SnpFile sfile, final Pane pane, 
-            final String pngPath, final Iterator<SnpFile> sIter, final Iterator<Pane> pIter, 
-            final int currentFile, final int totalFiles, final String chrom, 
-            final boolean forceRedraw, final SplitPane splitPane){
-        drawCoordinatesWithIterator(sfile, pane, pngPath, sIter, pIter, 
-            currentFile, totalFiles, chrom, null, null, forceRedraw, splitPane);
-    }
-    public void drawCoordinatesWithIterator(final SnpFile sfile, final Pane pane, 
-            final String pngPath, final Iterator<SnpFile> sIter, final Iterator<Pane> pIter, 
-            final int currentFile, final int totalFiles, final String chrom, final Double start,
-            final Double end, final boolean forceRedraw, final SplitPane splitPane){
+    /* draw chrom (or start to end of it) for each sample into its pane. 
+     * All panes are drawn at once (DrawSnpsToPane limits how many run at a 
+     * time) and each is shown as soon as it is ready, using the cached image
+     * unless forceRedraw is true (only whole chromosomes are cached). 
+     * Starting a new drawing with the same 
+     * coordinator abandons this one - anything it has in progress is 
+     * cancelled and its results are ignored.
+     */
+    public void drawPanes(final List<SnpFile> sfiles, final List<Pane> panes,
+            final String chrom, final Double start,
+            final Double end, final boolean forceRedraw, final SplitPane splitPane,
+            final RenderCoordinator coordinator){
+        final long generation = coordinator.begin();
+        final int totalFiles = Math.min(sfiles.size(), panes.size());
+        if (totalFiles < 1){
+            setProgressMode(false);
+            return;
+        }
         Stage stage = (Stage) splitPane.getScene().getWindow();
         fixStageSize(stage, true);
-        
-        //stage.setResizable(false);//we have to disable this when using windows due to a bug (in javafx?)
-        File pngFile = new File(sfile.getOutputDirectoryName() + "/" + chrom + ".png");
-        if (pngPath != null && pngPath.length() > 0){
-            pngFile = new File(sfile.getOutputDirectoryName() + "/" + pngPath + "/" + chrom + ".png");
-        }
-        if (!forceRedraw && pngFile.exists()){
-            try{
+        final boolean wholeChrom = start == null || end == null;
+        final int aaColor = ChromosomeRaster.toArgb(colorComp.get(Colors.aa.value));
+        final int bbColor = ChromosomeRaster.toArgb(colorComp.get(Colors.bb.value));
+        final int abColor = ChromosomeRaster.toArgb(colorComp.get(Colors.ab.value));
+        //no. of panes finished, and whether any failed
+        final int[] finished = {0};
+        final boolean[] failed = {false};
+        final Runnable allDone = new Runnable(){
+            @Override
+            public void run(){
                 progressBar.progressProperty().unbind();
-                progressBar.setProgress((double) currentFile/(double) totalFiles);
-                BufferedImage bufferedImage = ImageIO.read(pngFile);
-                Image image = SwingFXUtils.toFXImage(bufferedImage, null);
-                ImageView chromImage = new ImageView(image);
-                //chromImage.setCache(true);
-                pane.getChildren().clear();
-                pane.getChildren().add(chromImage);
-                //pane.setCache(true);
-                chromImage.fitWidthProperty().bind(pane.widthProperty());
-                chromImage.fitHeightProperty().bind(pane.heightProperty());
-                pane.minHeightProperty().bind(splitPane.heightProperty().divide(totalFiles));
-                pane.minWidthProperty().bind(splitPane.widthProperty());
-
-                if (sIter.hasNext()){
-                    SnpFile nextFile = sIter.next();
-                    Pane nextPane = pIter.next();
-                    drawCoordinatesWithIterator(nextFile, nextPane, pngPath,
-                        sIter, pIter, currentFile + 1, totalFiles, chrom, start, end,
-                        forceRedraw, splitPane);
+                progressBar.setProgress(0);
+                setProgressMode(false);
+                if (failed[0]){
+                    selectionOverlayPane.getChildren().clear();
+                    selectionOverlayPane.getChildren().add(dragSelectRectangle);
                 }else{
-                    progressBar.progressProperty().unbind();
-                    progressBar.setProgress(0);
-                    setProgressMode(false);
-                    fixStageSize(stage, false);//for windows only
-                    stage.setResizable(true);
+                    progressTitle.setText("");
+                    progressMessage.setText("");
                 }
-            }catch (IOException ex){
-                Alert error = new Alert(AlertType.ERROR);
-                error.setTitle("SnpViewer");
-                error.setHeaderText("Error displaying chromosome image");
-                error.setContentText("IO error reading cached image");
-                error.showAndWait();
-                return;
+                Stage stage = (Stage) splitPane.getScene().getWindow();
+                stage.setResizable(true);
+                fixStageSize(stage, false);//for windows only
             }
-            
-        }else{
-        
+        };
+        final Runnable paneDone = new Runnable(){
+            @Override
+            public void run(){
+                finished[0]++;
+                progressBar.progressProperty().unbind();
+                progressBar.setProgress((double) finished[0]/(double) totalFiles);
+                if (finished[0] == totalFiles){
+                    allDone.run();
+                }
+            }
+        };
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
+        progressTitle.setText("Drawing " + totalFiles + " samples");
+        progressMessage.textProperty().unbind();
+        progressMessage.setText("");
+        cancelButton.setOnAction(new EventHandler<ActionEvent>(){
+            @Override
+            public void handle(ActionEvent actionEvent){
+                if (!coordinator.isCurrent(generation)){
+                    return;
+                }
+                coordinator.cancel();
+                failed[0] = true;
+                progressTitle.setText("Drawing Cancelled");
+                progressMessage.setText("Drawing Cancelled");
+                allDone.run();
+            }
+        });
+        for (int i = 0; i < totalFiles; i++){
+            final SnpFile sfile = sfiles.get(i);
+            final Pane pane = panes.get(i);
             final DrawSnpsToPane draw = new DrawSnpsToPane(pane, sfile, chrom, 
-                   Colors.aa.value, Colors.bb.value, Colors.ab.value, start, end);
-
-           progressBar.progressProperty().unbind();
-           //progressBar.setProgress(0);
-           //progressBar.progressProperty().bind(draw.progressProperty());
-           progressTitle.setText("Drawing " + currentFile + " of " + totalFiles);
-           progressMessage.textProperty().bind(draw.messageProperty());
-           cancelButton.setOnAction(new EventHandler<ActionEvent>(){
-               @Override
-               public void handle(ActionEvent actionEvent){
-                    draw.cancel();
+                   colorComp.get(Colors.aa.value), colorComp.get(Colors.bb.value),
+                   colorComp.get(Colors.ab.value), start, end);
+            draw.setOnSucceeded(new EventHandler<WorkerStateEvent>(){
+                @Override
+                public void handle (WorkerStateEvent t){
+                    if (!coordinator.isCurrent(generation)){
+                        return;
+                    }
+                    ChromosomeRaster result = (ChromosomeRaster) t.getSource().getValue();
+                    if (result != null){
+                        setPaneImage(pane, result.toImage());
+                        pane.setVisible(true);
+                        if (wholeChrom){
+                            saveChromImage(sfile, ImageCache.key(sfile, chrom, 
+                                    draw.qualityFilter, result.getWidth(), 
+                                    result.getHeight(), aaColor, bbColor, 
+                                    abColor, draw.columnColorRule), result);
+                        }
+                    }
+                    pane.minWidthProperty().bind(splitPane.widthProperty());
+                    pane.minHeightProperty().bind(splitPane.heightProperty().divide(totalFiles));
+                    paneDone.run();
                 }
-           });
-
-           draw.setOnCancelled(new EventHandler<WorkerStateEvent>(){
-               @Override
-               public void handle (WorkerStateEvent t){
-                   
-                   progressBar.progressProperty().unbind();
-                   progressBar.setProgress(0);
-                   progressTitle.setText("Drawing Cancelled");
-                   progressMessage.textProperty().unbind();
-                   progressMessage.setText("Drawing Cancelled");
-                   setProgressMode(false);
-                   selectionOverlayPane.getChildren().clear();
-                   selectionOverlayPane.getChildren().add(dragSelectRectangle);
-                   Stage stage = (Stage) splitPane.getScene().getWindow();
-                   stage.setResizable(true);
-                   fixStageSize(stage, false);//for windows only
-               }
-           });
-           draw.setOnSucceeded(new EventHandler<WorkerStateEvent>(){
-               @Override
-               public void handle (WorkerStateEvent t){
-                   ArrayList<HashMap<String, Double>> result = (ArrayList<HashMap<String, Double>>) t.getSource().getValue();
-                   progressBar.progressProperty().unbind();
-                   progressBar.setProgress((double) currentFile/ (2 * (double) totalFiles));
-                   progressTitle.setText("");
-                   progressMessage.textProperty().unbind();
-                   progressMessage.setText("");
-                   /*if (pane.getMinHeight() < 200){
-                        pane.setMinHeight(200);
-                   }
-                   if (pane.getMinWidth() < 800){
-                       pane.setMinWidth(800);
-                   }*/
-                   if (result != null){
-                       List<Line> lines = drawLinesToPane(pane, result);
-                       pane.getChildren().addAll(lines);
-                       pane.setVisible(true);
-                       convertSampleViewToImage(sfile, pane, chrom, pngPath);
-                       /*for (Line l: lines){
-                           l.startXProperty().unbind();
-                           l.startYProperty().unbind();
-                           l.endXProperty().unbind();
-                           l.endYProperty().unbind();
-                       }*/
-                       lines.clear();
-                   }
-                   progressBar.setProgress((double) currentFile/ (double) totalFiles);
-                   pane.minWidthProperty().bind(splitPane.widthProperty());
-                   pane.minHeightProperty().bind(splitPane.heightProperty().divide(totalFiles));
-                  // pane.setCache(true);
-                   if (sIter.hasNext()){
-                       SnpFile nextFile = sIter.next();
-                       Pane nextPane = pIter.next();
-                       drawCoordinatesWithIterator(nextFile, nextPane, pngPath,
-                               sIter, pIter, currentFile + 1, totalFiles, chrom,
-                               start, end, forceRedraw, splitPane);
-                   }else{
-                       setProgressMode(false);
-                       progressBar.progressProperty().unbind();
-                       progressBar.setProgress(0);
-                
-
-                       Stage stage = (Stage) splitPane.getScene().getWindow();
-                       stage.setResizable(true);
-                       fixStageSize(stage, false);//for windows only
-                   }
-               }
-           });
-           draw.setOnFailed(new EventHandler<WorkerStateEvent>(){
+            });
+            draw.setOnFailed(new EventHandler<WorkerStateEvent>(){
                 @Override
                 public void handle(WorkerStateEvent t){
-                    draw.reset();
-                    progressBar.progressProperty().unbind();
-                    progressBar.setProgress(0);
+                    if (!coordinator.isCurrent(generation)){
+                        return;
+                    }
+                    failed[0] = true;
                     progressTitle.setText("ERROR!");
-                    progressMessage.textProperty().unbind();
                     progressMessage.setText("Drawing failed!");
-                    setProgressMode(false);
-                    selectionOverlayPane.getChildren().clear();
-                    selectionOverlayPane.getChildren().add(dragSelectRectangle);
-               //     Stage stage = (Stage) chromSplitPane.getScene().getWindow();
-               //     stage.setResizable(true);
+                    paneDone.run();
                 }
-
             });
-           draw.start();
-        }     
-    }
-    
-    public List<Line> drawLinesToPane(Pane pane, final ArrayList<HashMap<String, Double>> linemap){
-        List<Line> lines = new ArrayList();
-        for (HashMap<String, Double> l: linemap){
-            double width = pane.getWidth();
-            double coord = l.get("x");
-            Line line = new Line(l.get("x"), 0, l.get("x"), pane.getMinHeight());
-            line.setStroke(colorComp.get(l.get("color").intValue()));
-            /*line.startXProperty().bind((pane.widthProperty().divide(width)).multiply(coord) );
-            line.endXProperty().bind((pane.widthProperty().divide(width)).multiply(coord) );
-            line.endYProperty().bind(pane.heightProperty().subtract(1));*/
-            lines.add(line);
-            //pane.getChildren().add(l);
-        }
-        return lines;
-        
-    }
-    
-    public void convertSampleViewToImage(final SnpFile s, final Pane pane, 
-            final String chrom, final String path){
-        WritableImage image;
-        try{
-            image = pane.snapshot(null, null);
-        }catch(IllegalStateException ex){
-            Alert error = new Alert(AlertType.ERROR);
-            error.setTitle("SnpViewer");
-            error.setHeaderText("PNG conversion failed");
-            error.setContentText("Error while attempting to convert"
-                    + " view to image file");
-            error.showAndWait();
-            return;
-        }
-
-        final DrawPaneToPng drawToPng = new DrawPaneToPng(image);
-        drawToPng.setOnSucceeded(new EventHandler<WorkerStateEvent>(){
-            @Override
-            public void handle(WorkerStateEvent t){
-                File pngFile;
-                if (path != null && path.length() > 0){
-                    pngFile = new File(s.getOutputDirectoryName() + "/" + path + "/" + chrom + ".png");
-                }else{
-                    pngFile = new File(s.getOutputDirectoryName() + "/" + chrom + ".png");
-                }
-                try{
-                    if (!pngFile.getParentFile().exists()){
-                        boolean madeDir = pngFile.getParentFile().mkdir();
-                        if (madeDir == false){
-                            Alert error = new Alert(AlertType.ERROR);
-                            error.setTitle("SnpViewer");
-                            error.setHeaderText("PNG conversion failed");
-                            error.setContentText("Unable to make sub directory"
-                            + " when converting dynamic view to image file. Please "
-                                    + "check permissions.");
-                            error.showAndWait();
-                            return;
+            File pngFile = null;
+            if (!forceRedraw && wholeChrom){
+                //the same size as DrawSnpsToPane would draw
+                pngFile = ImageCache.forSample(sfile).find(ImageCache.key(sfile, 
+                        chrom, draw.qualityFilter, 
+                        DrawSnpsToPane.pixels(pane.getMinWidth()), 
+                        DrawSnpsToPane.pixels(pane.getMinHeight()), aaColor, 
+                        bbColor, abColor, draw.columnColorRule));
+            }
+            if (pngFile != null){
+                //decoded by javafx in the background, falling back to drawing
+                final Image image = new Image(pngFile.toURI().toString(), true);
+                coordinator.register(generation, image);
+                setPaneImage(pane, image);
+                pane.minHeightProperty().bind(splitPane.heightProperty().divide(totalFiles));
+                pane.minWidthProperty().bind(splitPane.widthProperty());
+                final ChangeListener<Number> loaded = new ChangeListener<Number>(){
+                    @Override
+                    public void changed(ObservableValue<? extends Number> observable,
+                            Number oldValue, Number newValue){
+                        if (newValue.doubleValue() >= 1 && !image.isError()){
+                            image.progressProperty().removeListener(this);
+                            if (coordinator.isCurrent(generation)){
+                                paneDone.run();
+                            }
                         }
                     }
-                    Files.copy(drawToPng.getImageFile().toPath(), pngFile.toPath(), REPLACE_EXISTING);
-                    BufferedImage bufferedImage = ImageIO.read(pngFile);
-                    Image image = SwingFXUtils.toFXImage(bufferedImage, null);
-                    
-                    ImageView chromImage = new ImageView(image);
-                   // chromImage.setCache(true);
-                    for (Iterator it = pane.getChildren().iterator(); it.hasNext();){
-                        Object line = it.next();
-                        if (line instanceof Line){
-                            /*Line l = (Line) line;
-                            l.startXProperty().unbind();
-                            l.endXProperty().unbind();
-                            l.endYProperty().unbind();*/
-                        }else if (line instanceof ImageView){
-                            ImageView l = (ImageView) line;
-                            l.fitHeightProperty().unbind();
-                            l.fitWidthProperty().unbind();
+                };
+                image.progressProperty().addListener(loaded);
+                image.errorProperty().addListener(new ChangeListener<Boolean>(){
+                    @Override
+                    public void changed(ObservableValue<? extends Boolean> observable,
+                            Boolean oldValue, Boolean newValue){
+                        if (newValue && coordinator.isCurrent(generation)){
+                            image.progressProperty().removeListener(loaded);
+                            pane.minHeightProperty().unbind();
+                            pane.minWidthProperty().unbind();
+                            coordinator.register(generation, draw);
+                            draw.start();
                         }
                     }
-                    pane.getChildren().clear();
-                    pane.getChildren().add(chromImage);
-                    
-                    chromImage.fitWidthProperty().bind(pane.widthProperty());
-                    chromImage.fitHeightProperty().bind(pane.heightProperty());
-               }catch (IOException ex){
-                    Alert error = new Alert(AlertType.ERROR);
-                    error.setTitle("SnpViewer");
-                    error.setHeaderText("PNG conversion failed");
-                    error.setContentText("IOException while attempting to convert"
-                            + " dynamic view to image file");
-                    error.showAndWait();
-               }
+                });
+                if (image.isError()){
+                    image.progressProperty().removeListener(loaded);
+                    coordinator.register(generation, draw);
+                    draw.start();
+                }else if (image.getProgress() >= 1){
+                    image.progressProperty().removeListener(loaded);
+                    paneDone.run();
+                }
+            }else{
+                coordinator.register(generation, draw);
+                draw.start();
             }
-        });
-        drawToPng.setOnFailed(new EventHandler<WorkerStateEvent>(){
+        }
+    }
+    
+    /* show image in pane, scaled to the pane's size */
+    private void setPaneImage(Pane pane, Image image){
+        for (Iterator it = pane.getChildren().iterator(); it.hasNext();){
+            Object child = it.next();
+            if (child instanceof ImageView){
+                ImageView i = (ImageView) child;
+                i.fitHeightProperty().unbind();
+                i.fitWidthProperty().unbind();
+            }
+        }
+        ImageView chromImage = new ImageView(image);
+        pane.getChildren().clear();
+        pane.getChildren().add(chromImage);
+        chromImage.fitWidthProperty().bind(pane.widthProperty());
+        chromImage.fitHeightProperty().bind(pane.heightProperty());
+    }
+    
+    /* write a drawn chromosome to the sample's image cache in the 
+     * background
+     */
+    public void saveChromImage(final SnpFile s, final ImageCache.Key key, 
+            final ChromosomeRaster raster){
+        final ImageCacheWriter writer = new ImageCacheWriter(
+                ImageCache.forSample(s), key, raster);
+        writer.setOnFailed(new EventHandler<WorkerStateEvent>(){
             @Override
             public void handle(WorkerStateEvent t){
                 Alert error = new Alert(AlertType.ERROR);
                 error.setTitle("SnpViewer");
                 error.setHeaderText("PNG conversion failed");
-                error.setContentText("Error encountered while attempting to convert"
-                        + " dynamic view to image file");
+                error.setContentText("Error encountered while attempting to write "
+                        + "chr" + key.chromosome + " of " + s.getInputFileName() 
+                        + " to the image cache.\n"
+                        + writer.getException().getLocalizedMessage());
                 error.showAndWait();
             }
         });
-        drawToPng.start();
-    }//end of convertSampleViewToImage
+        writer.start();
+    }//end of saveChromImage
     
     public void drawPaneToPng(){
         if (chromosomeSelector.getSelectionModel().isEmpty()){
@@ -2407,6 +2299,17 @@ public class SnpViewer extends Application implements Initializable, Serializabl
     }
     
     private void resetView(){
+        //the cancelled drawing won't finish, so release the stage here
+        viewRenders.cancel();
+        progressMode = false;
+        if (chromSplitPane.getScene() != null){
+            fixStageSize((Stage) chromSplitPane.getScene().getWindow(), false);
+        }
+        if (imageCacher != null){
+            ChromosomeImageCacher cacher = imageCacher;
+            imageCacher = null;
+            cacher.cancel();
+        }
         chromSplitPane.getItems().clear();
         labelSplitPane.getItems().clear();
         newProjectMenu.setDisable(false);
@@ -2467,7 +2370,18 @@ public class SnpViewer extends Application implements Initializable, Serializabl
        inputFiles.addAll(chosen);
        ArrayList<File> duplicates =  new ArrayList<>();
        ArrayList<Integer> indicesToRemove =  new ArrayList<>();
+       /*each input gets an output directory named after the file, so two 
+        * selected files that would share a directory can't be processed together
+        */
+       ArrayList<String> selectedDirs = new ArrayList<>();
        for (int i = 0; i < inputFiles.size(); i++){
+           String subDir = inputFiles.get(i).getName().replaceFirst("[.][^.]+$", "");
+           if (selectedDirs.contains(subDir)){
+               duplicates.add(inputFiles.get(i));
+               indicesToRemove.add(i);
+               continue;
+           }
+           selectedDirs.add(subDir);
            for (SnpFile s: affFiles){
                if (inputFiles.get(i).getName().equals(s.getInputFileName())){
                    duplicates.add(inputFiles.get(i));
@@ -2513,10 +2427,7 @@ public class SnpViewer extends Application implements Initializable, Serializabl
            setProgressMode(false);
            return ;
        }
-       final Iterator iter = inputFiles.iterator();
-       File input = (File) iter.next();
-       lastLoadedDir = input.getParentFile();
-       int fileCounter = 1;
+       lastLoadedDir = inputFiles.get(0).getParentFile();
        if (snpViewSaveDirectory == null){
            Alert warn = new Alert(AlertType.WARNING);
            warn.setResizable(true);
@@ -2534,11 +2445,16 @@ public class SnpViewer extends Application implements Initializable, Serializabl
            }
        }
 
-       addInputFilesWithIterator(isAffected, input, iter, fileCounter, inputFiles.size());
+       addInputFilesConcurrently(isAffected, inputFiles);
     }
     
-    private void addInputFilesWithIterator(final boolean isAffected, final File input, final Iterator it, final int fileCounter, final int totalFiles){
-        try{
+    /* convert up to maxConcurrentIngest input files at once. Samples are 
+     * added to the project in the order they were selected once all 
+     * conversions have finished.
+     */
+    private void addInputFilesConcurrently(final boolean isAffected, final List<File> inputs){
+        final ArrayList<SnpFile> snpFiles = new ArrayList<>();
+        for (File input: inputs){
             String subDir = input.getName().replaceFirst("[.][^.]+$", "");
             File outputDirectory = new File(snpViewSaveDirectory +"/" + subDir);
             try{
@@ -2548,134 +2464,162 @@ public class SnpViewer extends Application implements Initializable, Serializabl
                 setProgressMode(false);
                 return ;
             }
-            final SnpFile snpFile = new SnpFile(input, outputDirectory);
-            progressBar.progressProperty().unbind();
-            progressBar.setProgress(0);
-            progressBar.progressProperty().bind(snpFile.progressProperty());
-            progressTitle.setText("Processing " + fileCounter + " of " + totalFiles);
-            progressMessage.textProperty().bind(snpFile.messageProperty());
-            cancelButton.setOnAction(new EventHandler<ActionEvent>(){
-                @Override
-                public void handle(ActionEvent actionEvent){
-                    snpFile.cancel();
-                    progressBar.progressProperty().unbind();
-                    progressBar.setProgress(0);
-                     progressTitle.setText("Cancelled");
-                     progressMessage.textProperty().unbind();
-                     progressMessage.setText("Cancelled");
-                     setProgressMode(false);
-
+            snpFiles.add(new SnpFile(input, outputDirectory));
+        }
+        final int poolSize = Math.max(1, Math.min(maxConcurrentIngest, snpFiles.size()));
+        //files being converted at the same time share the sort memory budget
+        for (SnpFile f: snpFiles){
+            f.setSortMemoryBudget(SnpFile.getDefaultSortMemoryBudget()/poolSize);
+        }
+        final ExecutorService ingestExecutor = Executors.newFixedThreadPool(poolSize, 
+                new ThreadFactory(){
+                    @Override
+                    public Thread newThread(Runnable r){
+                        Thread t = new Thread(r, "SnpFile ingest");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        final LinkedHashMap<SnpFile, String> failures = new LinkedHashMap<>();
+        final int[] finished = {0};
+        final boolean[] cancelled = {false};
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
+        progressMessage.textProperty().unbind();
+        progressTitle.setText("Processing 0 of " + snpFiles.size() + " files");
+        progressMessage.setText("");
+        cancelButton.setOnAction(new EventHandler<ActionEvent>(){
+            @Override
+            public void handle(ActionEvent actionEvent){
+                cancelled[0] = true;
+                for (SnpFile f: snpFiles){
+                    f.cancel();
                 }
-            });
-            snpFile.start();
-            snpFile.setOnSucceeded (new EventHandler<WorkerStateEvent>(){
+                ingestExecutor.shutdownNow();
+            }
+        });
+        final ChangeListener<Number> progressListener = new ChangeListener<Number>(){
+            @Override
+            public void changed(ObservableValue<? extends Number> observable,
+                    Number oldValue, Number newValue){
+                showIngestProgress(snpFiles, finished[0]);
+            }
+        };
+        for (final SnpFile snpFile: snpFiles){
+            final String fileName = snpFile.getInputFileName();
+            snpFile.setExecutor(ingestExecutor);
+            snpFile.progressProperty().addListener(progressListener);
+            EventHandler<WorkerStateEvent> doneHandler = new EventHandler<WorkerStateEvent>(){
                 @Override
                 public void handle(WorkerStateEvent t){
-                    if (snpFile.buildVersion == null){//need to manually identify snp build for autoSNPa files
-                        BuildInferrer buildInferrer = new BuildInferrer();
-                        String build = buildInferrer.inferBuild(snpFile);
-                        if (build == null){
-                            Alert error = new Alert(AlertType.ERROR);
-                            error.getDialogPane().setPrefSize(420, 250);
-                            error.setResizable(true);
-                            error.setTitle("SnpViewer");
-                            error.setHeaderText("Failure while adding input file.");
-                            error.setContentText( "Failed to process file " 
-                                    + input.getName() + ".  Could not determine "
-                                    + "genome build. Only hg19 and hg18 builds "
-                                    + "are supported and in the absence of a "
-                                    + "header containing build information only "
-                                    + "Affymetrix Genome-Wide Human SNP Array 5.0"
-                                    + " or 6.0 chips are supported.");
-                            error.showAndWait();
-                            setProgressMode(false);
-                            saveProject();
-                            return;
-                        }else{
-                            snpFile.setBuildVersion(build);
-                        }
-                    }
-                    progressBar.progressProperty().unbind();
-                    progressBar.setProgress(0);
-                    progressTitle.setText("");
-                    progressMessage.textProperty().unbind();
-                    progressMessage.setText("");
-                    if (genomeVersion.equals("")){
-                        genomeVersion = snpFile.getBuildVersion();
-                        buildLabel.setText(genomeVersion);
-                    }else{
-                        if (! snpFile.getBuildVersion().equalsIgnoreCase(genomeVersion)){
-                            progressTitle.setText("");
-                            progressMessage.setText("");
-                            Alert error = new Alert(AlertType.ERROR);
-                            error.setResizable(true);
-                            error.setTitle("SnpViewer");
-                            error.setHeaderText("Genome Version Error");
-                            error.setContentText( "Genome versions do "
-                                    + "not match between input files. Error while"
-                                    + " adding input file " + input.getName());
-                            error.showAndWait();
-                            setProgressMode(false);
-                            saveProject();
-                            return;
-                        }
-                    }
-                    if (isAffected){
-                        affObserve.add(snpFile);    
-                    }else{
-                        unObserve.add(snpFile);
+                    snpFile.progressProperty().removeListener(progressListener);
+                    if (t.getEventType() == WorkerStateEvent.WORKER_STATE_FAILED){
+                        Throwable ex = t.getSource().getException();
+                        ex.printStackTrace();
+                        failures.put(snpFile, fileName + ": " + ex.getLocalizedMessage());
                     }
-
-                    if (it.hasNext()){
-                        addInputFilesWithIterator(isAffected, (File) it.next(), it, fileCounter + 1, totalFiles);
-                    }else{
-                        setProgressMode(false);
-                        saveProject();
-                        refreshView(null, redrawCheckBox.isSelected());
+                    finished[0]++;
+                    showIngestProgress(snpFiles, finished[0]);
+                    if (finished[0] == snpFiles.size()){
+                        ingestExecutor.shutdown();
+                        finishConcurrentIngest(isAffected, snpFiles, failures, cancelled[0]);
                     }
                 }
-            });
-            final String fileNameForFailure = input.getName() ;
-            snpFile.setOnFailed(new EventHandler<WorkerStateEvent>(){
-                @Override
-                public void handle(WorkerStateEvent t){
-                    progressBar.progressProperty().unbind();
-                    progressBar.setProgress(0);
-                    progressTitle.setText("");
-                    progressMessage.textProperty().unbind();
-                   // progressMessage.setText("");
-                    Alert error = new Alert(AlertType.ERROR);
-                    error.getDialogPane().setPrefSize(420, 220);
-                    error.setResizable(true);
-                    error.setTitle("SnpViewer");
-                    error.setHeaderText("Failed to process file " 
-                            + fileNameForFailure);
-                    error.setContentText(t.getSource().getException().getLocalizedMessage() ); 
-                    t.getSource().getException().printStackTrace();
-                    error.showAndWait();
-                    setProgressMode(false);
-                    saveProject();
+            };
+            snpFile.setOnSucceeded(doneHandler);
+            snpFile.setOnFailed(doneHandler);
+            snpFile.setOnCancelled(doneHandler);
+            snpFile.start();
+        }
+    }
+    
+    /* aggregate progress goes in the progress bar, progress of files still 
+     * being converted in the progress message
+     */
+    private void showIngestProgress(List<SnpFile> snpFiles, int finished){
+        double total = 0;
+        StringBuilder running = new StringBuilder();
+        for (SnpFile f: snpFiles){
+            double p = f.getIngestProgress();
+            total += p;
+            if (f.isRunning()){
+                if (running.length() > 0){
+                    running.append(", ");
                 }
-
-            });
-            snpFile.setOnCancelled(new EventHandler<WorkerStateEvent>(){
-                @Override
-                public void handle(WorkerStateEvent t){
-                    progressBar.progressProperty().unbind();
-                    progressBar.setProgress(0);
-                    progressTitle.setText("ERROR!");
-                    progressMessage.textProperty().unbind();
-                    progressMessage.setText("Processing of " + fileNameForFailure + " failed!");
-                    setProgressMode(false);
-                    saveProject();
+                running.append(f.getInputFileName()).append(" ")
+                        .append((int) (100 * p)).append("%");
+            }
+        }
+        progressBar.setProgress(total / snpFiles.size());
+        progressTitle.setText("Processing " + finished + " of " + snpFiles.size() 
+                + " files");
+        progressMessage.setText(running.toString());
+    }
+    
+    private void finishConcurrentIngest(boolean isAffected, List<SnpFile> snpFiles, 
+            LinkedHashMap<SnpFile, String> failures, boolean cancelled){
+        for (SnpFile snpFile: snpFiles){
+            if (snpFile.getState() != Worker.State.SUCCEEDED){
+                continue;
+            }
+            String fileName = snpFile.getInputFileName();
+            if (snpFile.buildVersion == null){//need to manually identify snp build for autoSNPa files
+                BuildInferrer buildInferrer = new BuildInferrer();
+                String build = buildInferrer.inferBuild(snpFile);
+                if (build == null){
+                    failures.put(snpFile, fileName + ": Could not determine "
+                            + "genome build. Only hg19 and hg18 builds "
+                            + "are supported and in the absence of a "
+                            + "header containing build information only "
+                            + "Affymetrix Genome-Wide Human SNP Array 5.0"
+                            + " or 6.0 chips are supported.");
+                    continue;
+                }else{
+                    snpFile.setBuildVersion(build);
                 }
-
-            });
-
-        }catch (Exception ex) {
-            ex.printStackTrace();
-            //display error here
-        }      
+            }
+            if (genomeVersion.equals("")){
+                genomeVersion = snpFile.getBuildVersion();
+                buildLabel.setText(genomeVersion);
+            }else if (! snpFile.getBuildVersion().equalsIgnoreCase(genomeVersion)){
+                failures.put(snpFile, fileName + ": Genome version (" 
+                        + snpFile.getBuildVersion() + ") does not match "
+                        + "project genome version (" + genomeVersion + ")");
+                continue;
+            }
+            if (isAffected){
+                affObserve.add(snpFile);    
+            }else{
+                unObserve.add(snpFile);
+            }
+        }
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
+        progressMessage.textProperty().unbind();
+        if (cancelled){
+            progressTitle.setText("Cancelled");
+            progressMessage.setText("Cancelled");
+        }else{
+            progressTitle.setText("");
+            progressMessage.setText("");
+        }
+        if (!failures.isEmpty()){
+            StringBuilder failed = new StringBuilder();
+            for (String f: failures.values()){
+                failed.append(f).append("\n");
+            }
+            Alert error = new Alert(AlertType.ERROR);
+            error.getDialogPane().setPrefSize(420, 250);
+            error.setResizable(true);
+            error.setTitle("SnpViewer");
+            error.setHeaderText("Failed to process " + failures.size() + " of " 
+                    + snpFiles.size() + " file(s)");
+            error.setContentText(failed.toString());
+            error.showAndWait();
+        }
+        setProgressMode(false);
+        saveProject();
+        refreshView(null, redrawCheckBox.isSelected());
     }
     
     private void setProgressMode(boolean running){
@@ -2700,6 +2644,7 @@ public class SnpViewer extends Application implements Initializable, Serializabl
             newProjectMenu.setDisable(false);
             loadProjectMenu.setDisable(false);
             cacheChromsMenu.setDisable(false);
+            migrateProjectsMenu.setDisable(false);
             saveToPngMenu.setDisable(false);
             addAffSampleMenu.setDisable(false);
             addUnSampleMenu.setDisable(false);
@@ -2722,6 +2667,17 @@ public class SnpViewer extends Application implements Initializable, Serializabl
             filter95.setDisable(false);
             filter90.setDisable(false);
             cancelButton.setDisable(true);
+            if (imageCacher != null){
+                cacheChromsButton.setDisable(true);
+                cacheChromsMenu.setDisable(true);
+                //after the caller has finished resetting the progress bar
+                Platform.runLater(new Runnable(){
+                    @Override
+                    public void run(){
+                        showCachingProgress();
+                    }
+                });
+            }
         }else{
             progressMode = true;
             addAffected.setDisable(true);
@@ -2738,6 +2694,7 @@ public class SnpViewer extends Application implements Initializable, Serializabl
             newProjectMenu.setDisable(true);
             loadProjectMenu.setDisable(true);
             cacheChromsMenu.setDisable(true);
+            migrateProjectsMenu.setDisable(true);
             addAffSampleMenu.setDisable(true);
             addUnSampleMenu.setDisable(true);
             nextChromMenu.setDisable(true);
@@ -3017,6 +2974,7 @@ public class SnpViewer extends Application implements Initializable, Serializabl
                         resetView();
                     }
                     projectRunning = true; 
+                    offerProjectMigration(tempBoth);
 
                 }catch(IOException | ClassNotFoundException ex){
                     resetView();
@@ -4342,6 +4300,194 @@ public class SnpViewer extends Application implements Initializable, Serializabl
         return true;
     }
     
+    /*if any chromosome files of a loaded project are still in an older 
+     * format, ask whether to convert them - converted projects can't be 
+     * opened by earlier versions of SnpViewer so nothing is converted 
+     * without asking
+     */
+    private void offerProjectMigration(final List<SnpFile> snpFiles){
+        final File project = projectFile;
+        final Task<Integer> checkTask = new Task<Integer>(){
+            @Override
+            protected Integer call(){
+                return ProjectMigrator.countFilesToConvert(snpFiles);
+            }
+        };
+        checkTask.setOnSucceeded(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                int toConvert = checkTask.getValue();
+                if (toConvert == 0 || project != projectFile){
+                    return;
+                }
+                Alert alert = new Alert(AlertType.CONFIRMATION);
+                alert.getDialogPane().setPrefSize(420, 250);
+                alert.setResizable(true);
+                ButtonType yButton = ButtonType.YES;
+                ButtonType nButton = ButtonType.NO;
+                alert.getButtonTypes().setAll(yButton, nButton);
+                alert.setTitle("SnpViewer");
+                alert.setHeaderText("Convert Project Files?");
+                alert.setContentText(toConvert + " chromosome files in this "
+                        + "project are in an older format. Converting them "
+                        + "makes the project quicker to browse, but it can then "
+                        + "only be opened by this version of SnpViewer or later."
+                        + " The original files are kept with a .bak extension.");
+                Optional<ButtonType> response = alert.showAndWait();
+                if (response.isPresent() && response.get() == yButton){
+                    migrateProjectInBackground(snpFiles);
+                }
+            }
+        });
+        checkTask.setOnFailed(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                Logger.getLogger(SnpViewer.class.getName()).log(Level.WARNING, 
+                        null, e.getSource().getException());
+            }
+        });
+        Thread t = new Thread(checkTask);
+        t.setDaemon(true);
+        t.start();
+    }
+    
+    /*convert any chromosome files of a loaded project still in an older 
+     * format - the user can carry on working meanwhile as files are 
+     * replaced atomically and all formats can be read
+     */
+    private void migrateProjectInBackground(List<SnpFile> snpFiles){
+        final ProjectMigrator migrator = new ProjectMigrator();
+        migrator.addSamples(snpFiles);
+        migrator.setOnSucceeded(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                int converted = (Integer) e.getSource().getValue();
+                if (converted > 0){
+                    Logger.getLogger(SnpViewer.class.getName()).log(Level.INFO,
+                            "Converted {0} chromosome files to the current format", 
+                            converted);
+                }
+                for (String failure: migrator.getFailures()){
+                    Logger.getLogger(SnpViewer.class.getName()).log(Level.WARNING,
+                            "Could not convert {0}", failure);
+                }
+            }
+        });
+        migrator.setOnFailed(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                Logger.getLogger(SnpViewer.class.getName()).log(Level.WARNING, 
+                        null, e.getSource().getException());
+            }
+        });
+        migrator.start();
+    }
+    
+    /*convert the chromosome files of all projects in a chosen folder (and
+     * the current project, if any) to the current format
+     */
+    public void migrateProjectsFired(){
+        DirectoryChooser dirChooser = new DirectoryChooser();
+        dirChooser.setTitle("Choose Folder Containing Projects to Convert");
+        if (projectFile != null){
+            dirChooser.setInitialDirectory(projectFile.getParentFile());
+        }else{
+            dirChooser.setInitialDirectory(new File(getProperty("user.home")));
+        }
+        File dir = dirChooser.showDialog(mainWindow);
+        if (dir == null){
+            return;
+        }
+        Alert alert = new Alert(AlertType.CONFIRMATION);
+        alert.getDialogPane().setPrefSize(420, 250);
+        alert.setResizable(true);
+        alert.getButtonTypes().setAll(ButtonType.OK, ButtonType.CANCEL);
+        alert.setTitle("SnpViewer");
+        alert.setHeaderText("Convert Project Files?");
+        alert.setContentText("Converted projects can only be opened by this "
+                + "version of SnpViewer or later. The original files are kept "
+                + "with a .bak extension.");
+        Optional<ButtonType> response = alert.showAndWait();
+        if (!response.isPresent() || response.get() != ButtonType.OK){
+            return;
+        }
+        final ProjectMigrator migrator = new ProjectMigrator();
+        migrator.addDirectory(dir);
+        migrator.addSamples(affFiles);
+        migrator.addSamples(unFiles);
+        setProgressMode(true);
+        progressBar.progressProperty().unbind();
+        progressBar.progressProperty().bind(migrator.progressProperty());
+        progressMessage.textProperty().unbind();
+        progressMessage.textProperty().bind(migrator.messageProperty());
+        progressTitle.textProperty().unbind();
+        progressTitle.setText("Converting Project Files");
+        migrator.setOnSucceeded(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                resetMigrationProgress();
+                int converted = (Integer) e.getSource().getValue();
+                List<String> failures = migrator.getFailures();
+                Alert alert = new Alert(failures.isEmpty() ? 
+                        AlertType.INFORMATION : AlertType.WARNING);
+                alert.getDialogPane().setPrefSize(420, 250);
+                alert.setResizable(true);
+                alert.setTitle("SnpViewer");
+                alert.setHeaderText("Conversion Finished");
+                StringBuilder content = new StringBuilder("Converted " + converted 
+                        + " chromosome files.");
+                if (!failures.isEmpty()){
+                    content.append("\n\n").append(failures.size())
+                            .append(" files could not be converted:");
+                    for (String failure: failures){
+                        content.append("\n").append(failure);
+                    }
+                }
+                alert.setContentText(content.toString());
+                alert.showAndWait();
+            }
+        });
+        migrator.setOnFailed(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                resetMigrationProgress();
+                Alert error = new Alert(AlertType.ERROR);
+                error.getDialogPane().setPrefSize(420, 200);
+                error.setResizable(true);
+                error.setTitle("SnpViewer");
+                error.setHeaderText("Conversion Error");
+                error.setContentText("Error converting project files\n" + 
+                        migrator.getException().getLocalizedMessage());
+                migrator.getException().printStackTrace();
+                error.showAndWait();
+            }
+        });
+        migrator.setOnCancelled(new EventHandler<WorkerStateEvent>(){
+            @Override
+            public void handle (WorkerStateEvent e){
+                resetMigrationProgress();
+                progressMessage.setText("Conversion cancelled");
+            }
+        });
+        cancelButton.setOnAction(new EventHandler<ActionEvent>(){
+            @Override
+            public void handle(ActionEvent actionEvent){
+                migrator.cancel();
+            }
+        });
+        migrator.start();
+    }
+    
+    private void resetMigrationProgress(){
+        setProgressMode(false);
+        progressBar.progressProperty().unbind();
+        progressBar.progressProperty().set(0);
+        progressTitle.textProperty().unbind();
+        progressMessage.textProperty().unbind();
+        progressTitle.setText("");
+        progressMessage.setText("");
+    }
+    
     private void checkQualitySelection(){
         ArrayList<RadioMenuItem> callQualityRadios = new ArrayList<>(Arrays.asList
                 (noFilteringRadio, filter99pt9, filter99pt5, filter99, filter95, filter90));
@@ -0,0 +1,260 @@
+/*
+ * Snp Viewer - a program for viewing SNP data and identifying regions of homozygosity
+ * Copyright (C) 2013 David A. Parry
+ * d.a.parry@leeds.ac.uk
+ * https://sourceforge.net/projects/snpviewer/
+ *
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package snpviewer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Genotype counts for one sample and chromosome at several resolutions,
+ * so that any zoom level or region can be drawn without reading the SNPs
+ * again. Level L has 2^L bp per pixel column and is split into tiles of
+ * TILE_WIDTH columns, each holding the AA/BB/AB counts of its columns
+ * (a GenotypeBins). Tiles are only made when a view first needs them and
+ * are then kept in the sample's folder under
+ * tiles/<quality filter>/chr<chrom>/<level>_<tile>.tile.
+ *
+ * Counts rather than colours are stored so that the tiles don't depend on
+ * the genotype colours, the ColumnColorRule or the height of the view.
+ * Each tile records the size and modification time of the chromosome file
+ * it was made from and is made again if they don't match.
+ *
+ * @author david
+ */
+public class TilePyramid {
+    static final int TILE_WIDTH = 256;
+    static final int MAX_LEVEL = 30;
+    static final String DIRECTORY = "tiles";
+    //"SNPT"
+    static final int MAGIC = 0x534E5054;
+    static final short VERSION = 1;
+
+    private final SnpFile snpFile;
+    private final String chrom;
+    private final File chromFile;
+    private final Double filter;
+    private final File directory;
+
+    /* filter is passed rather than read from s, as the sample's filter may 
+     * be changed while tiles are being made in the background
+     */
+    TilePyramid(SnpFile s, String c, Double qualityFilter){
+        snpFile = s;
+        chrom = c;
+        chromFile = s.getChromFiles().get(c);
+        filter = qualityFilter;
+        String filterDir = ImageCache.tierName(filter);
+        directory = new File(s.getOutputDirectory(), DIRECTORY + "/" + filterDir 
+                + "/chr" + c);
+    }
+
+    /* the coarsest level with no more bp per pixel than bpPerPixel, so 
+     * that every view column gets at least one tile column
+     */
+    static int levelFor(double bpPerPixel){
+        int level = 0;
+        while (level < MAX_LEVEL && (1L << (level + 1)) <= bpPerPixel){
+            level++;
+        }
+        return level;
+    }
+
+    /* genotype counts for w columns from start to end (bp) - the column of
+     * a SNP is that of the tile column it falls in, so may be one column
+     * out from where it would be drawn directly. Returns null if cancelled
+     * becomes true while tiles are being read or made.
+     */
+    public GenotypeBins binRegion(double start, double end, int w, 
+            BooleanSupplier cancelled) throws IOException{
+        GenotypeBins bins = new GenotypeBins(w);
+        if (w < 1 || end <= start || chromFile == null){
+            return bins;
+        }
+        double factor = w / (end - start);
+        int level = levelFor((end - start) / w);
+        long bpp = 1L << level;
+        long tileBp = bpp * TILE_WIDTH;
+        long first = (long) Math.max(0, start) / tileBp;
+        //as when drawing directly, SNPs up to a column past end go in the last column
+        long last = (long) Math.max(0, end + (end - start) / w) / tileBp;
+        GenotypeBins[] tiles = getTiles(level, first, last, cancelled);
+        if (tiles == null){
+            return null;
+        }
+        for (int t = 0; t < tiles.length; t++){
+            long tileStart = (first + t) * tileBp;
+            for (int c = 0; c < TILE_WIDTH; c++){
+                long colStart = tileStart + c * bpp;
+                if (colStart + bpp <= start){
+                    continue;
+                }
+                int x = (int) Math.max(0, (colStart - start) * factor);
+                if (x > w){
+                    break;
+                }
+                x = Math.min(x, w - 1);
+                for (int g = GenotypeBins.AA; g <= GenotypeBins.AB; g++){
+                    int n = tiles[t].getCount(g, c);
+                    if (n > 0){
+                        bins.add(g, x, n);
+                    }
+                }
+            }
+        }
+        return bins;
+    }
+
+    /* tiles first to last of level, reading those already made and making
+     * the rest from one read of the SNPs they cover. Returns null, without
+     * writing any tiles, if cancelled.
+     */
+    GenotypeBins[] getTiles(int level, long first, long last, 
+            BooleanSupplier cancelled) throws IOException{
+        GenotypeBins[] tiles = new GenotypeBins[(int) (last - first + 1)];
+        long firstMissing = -1;
+        long lastMissing = -1;
+        for (long t = first; t <= last; t++){
+            if (cancelled.getAsBoolean()){
+                return null;
+            }
+            GenotypeBins tile = readTile(level, t);
+            if (tile == null){
+                if (firstMissing < 0){
+                    firstMissing = t;
+                }
+                lastMissing = t;
+            }
+            tiles[(int) (t - first)] = tile;
+        }
+        if (firstMissing < 0){
+            return tiles;
+        }
+        long bpp = 1L << level;
+        long tileBp = bpp * TILE_WIDTH;
+        long regionStart = firstMissing * tileBp;
+        long regionEnd = (lastMissing + 1) * tileBp;//exclusive
+        GenotypeBins[] made = new GenotypeBins[(int) (lastMissing - firstMissing + 1)];
+        for (int t = 0; t < made.length; t++){
+            made[t] = new GenotypeBins(TILE_WIDTH);
+        }
+        ChromosomeStore store = snpFile.getRegionStore(chrom, 
+                (int) Math.min(regionStart, Integer.MAX_VALUE), 
+                (int) Math.min(regionEnd - 1, Integer.MAX_VALUE), 0, filter);
+        if (store == null){
+            //don't cache empty tiles for a file that couldn't be read
+            throw new IOException("Could not read chromosome " + chrom + " from "
+                    + chromFile.getPath());
+        }
+        int[] types = GenotypeBins.genotypeTypes(store);
+        for (int i = 0; i < store.size(); i++){
+            if ((i & 0xffff) == 0 && cancelled.getAsBoolean()){
+                //partly made tiles must not be written
+                return null;
+            }
+            long p = store.getPosition(i);
+            int type = types[store.getGenotypeCode(i)];
+            //the region includes the nearest SNPs outside it
+            if (type == GenotypeBins.NONE || p < regionStart || p >= regionEnd){
+                continue;
+            }
+            long col = (p - regionStart) >>> level;
+            made[(int) (col / TILE_WIDTH)].add(type, (int) (col % TILE_WIDTH), 1);
+        }
+        for (long t = firstMissing; t <= lastMissing; t++){
+            int i = (int) (t - first);
+            if (tiles[i] == null){
+                tiles[i] = made[(int) (t - firstMissing)];
+                writeTile(level, t, tiles[i]);
+            }
+        }
+        return tiles;
+    }
+
+    File getTileFile(int level, long tile){
+        return new File(directory, level + "_" + tile + ".tile");
+    }
+
+    /* null if the tile hasn't been made or is out of date */
+    private GenotypeBins readTile(int level, long tile){
+        File file = getTileFile(level, tile);
+        if (!file.exists()){
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))){
+            if (in.readInt() != MAGIC || in.readShort() != VERSION 
+                    || in.readLong() != chromFile.length() 
+                    || in.readLong() != chromFile.lastModified()
+                    || in.readInt() != TILE_WIDTH){
+                return null;
+            }
+            GenotypeBins bins = new GenotypeBins(TILE_WIDTH);
+            for (int g = GenotypeBins.AA; g <= GenotypeBins.AB; g++){
+                for (int c = 0; c < TILE_WIDTH; c++){
+                    bins.add(g, c, in.readInt());
+                }
+            }
+            return bins;
+        }catch (IOException ex){
+            //includes EOFException for a truncated tile
+            return null;
+        }
+    }
+
+    /* tiles are only a cache, so failing to write one isn't an error */
+    private void writeTile(int level, long tile, GenotypeBins bins){
+        File file = getTileFile(level, tile);
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            return;
+        }
+        File temp = null;
+        try{
+            //unique temp file as another thread may be making the same tile
+            temp = File.createTempFile(file.getName(), ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(temp)))){
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeLong(chromFile.length());
+                out.writeLong(chromFile.lastModified());
+                out.writeInt(TILE_WIDTH);
+                for (int g = GenotypeBins.AA; g <= GenotypeBins.AB; g++){
+                    for (int c = 0; c < TILE_WIDTH; c++){
+                        out.writeInt(bins.getCount(g, c));
+                    }
+                }
+            }
+            AtomicFiles.replace(temp, file);
+        }catch (IOException ex){
+            if (temp != null){
+                temp.delete();
+            }
+        }
+    }
+}